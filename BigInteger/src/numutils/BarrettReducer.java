@@ -0,0 +1,240 @@
+package numutils;
+
+import java.util.Arrays;
+
+public class BarrettReducer {
+
+	private static final BigInteger ONE = BigInteger.valueOf(1);
+	// moduli of up to this many limbs get their reciprocal by long division
+	static final int NEWTON_THRESHOLD = 64;
+
+	private final BigInteger modulus;
+	// the modulus limbs, and mu = floor(2^(64 * m.length) / modulus), i.e.
+	// floor(4^k / modulus) with k rounded up to whole limbs
+	private final int[] m;
+	private final int[] mu;
+
+	public BarrettReducer(BigInteger modulus) {
+		if (modulus.bitLength() == 0) {
+			throw new ArithmeticException("division or modulo by zero");
+		}
+		this.modulus = modulus;
+		m = modulus.mag;
+		mu = reciprocal(modulus, 64 * m.length - 2 * modulus.bitLength()).mag;
+	}
+
+	// returns the quotient and remainder of x divided by the modulus
+	public BigInteger[] divide(BigInteger x) {
+		if (x.compareTo(modulus) < 0) {
+			return new BigInteger[] { BigInteger.valueOf(0), x };
+		}
+		if (x.mag.length > 2 * m.length) {
+			return x.quadDivision(modulus);
+		}
+		Metrics.record(Metrics.Operation.BARRETT_REDUCTION, x.bitLength());
+		int[] q = quotient(x.mag);
+		int[] r = remainder(x.mag, q);
+		BigInteger quotient = new BigInteger(q);
+		while (!reduced(r)) {
+			subtract(r, r.length, m);
+			quotient = quotient.add(ONE);
+		}
+		return new BigInteger[] { quotient, new BigInteger(r) };
+	}
+
+	public BigInteger getModulus() {
+		return modulus;
+	}
+
+	// t = a * b mod the modulus, reading the low m.length limbs of a and b,
+	// which must be reduced. t needs room for 2 * m.length + 2 limbs, and q
+	// comes from scratch(), so that a loop can reuse both buffers instead of
+	// allocating at every step.
+	void multiply(int[] a, int[] b, MutableBigInteger t, int[] q) {
+		int n = m.length;
+		if (n >= BigInteger.getKaratsubaThreshold()) {
+			t.setValue(BigInteger.multiply(Arrays.copyOf(a, n),
+					Arrays.copyOf(b, n)));
+		} else {
+			t.clear();
+			for (int i = 0; i < n; i++) {
+				t.multiplyAccumulate(b, 0, n, a[i], i);
+			}
+		}
+		reduce(t, q);
+	}
+
+	// the quotient estimate q = ((x >> 32(n - 1)) * mu) >> 32(n + 1), for x
+	// below 2^(64n). it never exceeds the true quotient, and falls short of it
+	// by at most 2, or 3 when the product is truncated.
+	private int[] quotient(int[] x) {
+		int n = m.length;
+		int[] q2;
+		if (n < BigInteger.getKaratsubaThreshold()) {
+			q2 = new int[x.length - n + 1 + mu.length];
+			highProduct(x, n - 1, x.length, mu, n - 1, q2);
+		} else {
+			q2 = BigInteger.multiply(Arrays.copyOfRange(x, n - 1, x.length), mu);
+		}
+		return Arrays.copyOfRange(q2, Math.min(n + 1, q2.length), q2.length);
+	}
+
+	// floor(2^(2k + e) / m), where k is the bit length of m, by newton
+	// iteration from the reciprocal of the top half of m. each step costs a
+	// few multiplications, so a large modulus does not need a full long
+	// division.
+	static BigInteger reciprocal(BigInteger m, int e) {
+		int k = m.bitLength();
+		BigInteger power = ONE.leftShift(2 * k + e);
+		if (k <= 32 * NEWTON_THRESHOLD) {
+			return power.quadDivision(m)[0];
+		}
+		// y approximates 2^(2k + e) / m to about h bits, and one newton step
+		// x = 2y - m * y^2 / 2^(2k + e) doubles that, so h is chosen to leave
+		// only a few units of error for the final correction
+		int h = (k + e) / 2 + 8;
+		BigInteger y = reciprocal(m.rightShift(k - h), e).leftShift(k - h);
+		BigInteger x = y.leftShift(1).subtract(
+				m.multiply(y.square()).rightShift(2 * k + e));
+		BigInteger p = m.multiply(x);
+		while (p.compareTo(power) > 0) {
+			x = x.subtract(ONE);
+			p = p.subtract(m);
+		}
+		for (p = p.add(m); p.compareTo(power) <= 0; p = p.add(m)) {
+			x = x.add(ONE);
+		}
+		return x;
+	}
+
+	// returns x mod the modulus
+	public BigInteger reduce(BigInteger x) {
+		if (x.compareTo(modulus) < 0) {
+			return x;
+		}
+		if (x.mag.length > 2 * m.length) {
+			// outside the range mu was computed for, e.g. a product of
+			// unreduced operands
+			return x.quadDivision(modulus)[1];
+		}
+		Metrics.record(Metrics.Operation.BARRETT_REDUCTION, x.bitLength());
+		int[] r = remainder(x.mag, quotient(x.mag));
+		while (!reduced(r)) {
+			subtract(r, r.length, m);
+		}
+		return new BigInteger(r);
+	}
+
+	// t = t mod the modulus in place, for t below 2^(64 * m.length), with
+	// the quotient estimate in the scratch space q
+	private void reduce(MutableBigInteger t, int[] q) {
+		if (t.compareTo(m) < 0) {
+			return;
+		}
+		int n = m.length;
+		Metrics.record(Metrics.Operation.BARRETT_REDUCTION, 32 * t.length
+				- Integer.numberOfLeadingZeros(t.value[t.length - 1]));
+		if (n >= BigInteger.getKaratsubaThreshold()) {
+			// the subquadratic products allocate anyway
+			int[] x = Arrays.copyOf(t.value, t.length);
+			t.setValue(remainder(x, quotient(x)));
+		} else {
+			Arrays.fill(q, 0);
+			highProduct(t.value, n - 1, t.length, mu, n - 1, q);
+			Arrays.fill(t.value, n + 1, Math.max(t.length, n + 1), 0);
+			subtractLowProduct(t.value, n + 1, q, n + 1, q.length, m);
+			t.length = n + 1;
+		}
+		while (!reduced(t.value)) {
+			subtract(t.value, n + 1, m);
+		}
+		t.normalize();
+	}
+
+	private boolean reduced(int[] r) {
+		int n = m.length;
+		return r[n] == 0 && BigInteger.compareMagnitude(r, m, n) < 0;
+	}
+
+	// x - q * modulus, for the estimate q. this is below 4 * modulus <
+	// 2^(32(n + 1)), so it is enough to work mod 2^(32(n + 1)), needing only
+	// the low limbs of q * modulus.
+	private int[] remainder(int[] x, int[] q) {
+		int n = m.length;
+		int[] r = Arrays.copyOf(x, n + 1);
+		if (n < BigInteger.getKaratsubaThreshold()) {
+			subtractLowProduct(r, r.length, q, 0, q.length, m);
+		} else if (q.length > 0) {
+			subtract(r, r.length, Arrays.copyOf(BigInteger.multiply(q, m),
+					n + 1));
+		}
+		return r;
+	}
+
+	// scratch space for the quotient estimate in multiply and square
+	int[] scratch() {
+		return new int[m.length + mu.length + 1];
+	}
+
+	// t = x^2 mod the modulus, like multiply
+	void square(int[] x, MutableBigInteger t, int[] q) {
+		int n = m.length;
+		if (n >= BigInteger.getKaratsubaThreshold()) {
+			t.setValue(BigInteger.square(Arrays.copyOf(x, n)));
+		} else {
+			t.clear();
+			BigInteger.quadSquare(x, n, t.value);
+			t.length = 2 * n;
+			t.normalize();
+		}
+		reduce(t, q);
+	}
+
+	// writes a[aFrom..aTo) * b into the zeroed product, leaving out the
+	// partial products below limb from. the carries lost from those can make
+	// the limbs above from too small by at most 1.
+	private static void highProduct(int[] a, int aFrom, int aTo, int[] b,
+			int from, int[] product) {
+		for (int i = 0; i < aTo - aFrom; i++) {
+			long carry = 0, ai = a[aFrom + i] & BigInteger.LONG_MASK;
+			for (int j = Math.max(from - i, 0); j < b.length; j++) {
+				carry += ai * (b[j] & BigInteger.LONG_MASK)
+						+ (product[i + j] & BigInteger.LONG_MASK);
+				product[i + j] = (int) carry;
+				carry >>>= 32;
+			}
+			product[i + b.length] = (int) carry;
+		}
+	}
+
+	// r -= m mod 2^(32 * len), with len >= m.length
+	private static void subtract(int[] r, int len, int[] m) {
+		long borrow = 0;
+		for (int i = 0; i < len; i++) {
+			borrow += (r[i] & BigInteger.LONG_MASK)
+					- (i < m.length ? m[i] & BigInteger.LONG_MASK : 0);
+			r[i] = (int) borrow;
+			borrow >>= 32;
+		}
+	}
+
+	// r -= a[aFrom..aTo) * b mod 2^(32 * len), computing only the limbs of
+	// the product which fall inside r[0..len)
+	private static void subtractLowProduct(int[] r, int len, int[] a,
+			int aFrom, int aTo, int[] b) {
+		for (int i = 0; i < aTo - aFrom && i < len; i++) {
+			long carry = 0, ai = a[aFrom + i] & BigInteger.LONG_MASK;
+			for (int j = 0; i + j < len; j++) {
+				// subtract ai * b[j] and the carry, which never exceeds
+				// 2^64 - 2^32 in total, and keep the borrow as the next carry
+				long product = ai
+						* (j < b.length ? b[j] & BigInteger.LONG_MASK : 0)
+						+ carry;
+				long d = (r[i + j] & BigInteger.LONG_MASK)
+						- (product & BigInteger.LONG_MASK);
+				r[i + j] = (int) d;
+				carry = (product >>> 32) - (d >> 32);
+			}
+		}
+	}
+}
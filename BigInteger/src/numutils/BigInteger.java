@@ -1,126 +1,245 @@
 package numutils;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import numutils.Metrics.Operation;
 
 public class BigInteger implements Comparable<BigInteger>, Cloneable {
 
-	private int nbits;
-	private BitSet bits;
+	static final long LONG_MASK = 0xffffffffL;
+
+	// the magnitude is stored as little-endian 32 bit limbs, with no leading
+	// zero limbs, so that mag.length == (nbits + 31) / 32 always holds
+	private final int nbits;
+	final int[] mag;
 
 	// epsilon used for rsa key generation
 	private static final float EPSILON = 1e-16f;
 	private static final Random RANDOM = new Random();
-	private static final BigInteger ZERO = new BigInteger("0x0");
-	private static final BigInteger ONE = new BigInteger("0x1");
-	// list of primes used for rsa key generation
-	private static BigInteger[] PRIMES = new BigInteger[] {
-			new BigInteger("0x2"), new BigInteger("0x3"),
-			new BigInteger("0x5"), new BigInteger("0x7"),
-			new BigInteger("0xb"), new BigInteger("0xd"),
-			new BigInteger("0x11"), new BigInteger("0x13"),
-			new BigInteger("0x17"), new BigInteger("0x1d"),
-			new BigInteger("0x1f"), new BigInteger("0x25"),
-			new BigInteger("0x29"), new BigInteger("0x2b"),
-			new BigInteger("0x2f"), new BigInteger("0x35"),
-			new BigInteger("0x3b"), new BigInteger("0x3d"),
-			new BigInteger("0x43"), new BigInteger("0x47"),
-			new BigInteger("0x49"), new BigInteger("0x4f"),
-			new BigInteger("0x53"), new BigInteger("0x59"),
-			new BigInteger("0x61"), new BigInteger("0x65"),
-			new BigInteger("0x67"), new BigInteger("0x6b"),
-			new BigInteger("0x6d"), new BigInteger("0x71"),
-			new BigInteger("0x7f"), new BigInteger("0x83"),
-			new BigInteger("0x89"), new BigInteger("0x8b"),
-			new BigInteger("0x95"), new BigInteger("0x97"),
-			new BigInteger("0x9d"), new BigInteger("0xa3"),
-			new BigInteger("0xa7"), new BigInteger("0xad"),
-			new BigInteger("0xb3"), new BigInteger("0xb5"),
-			new BigInteger("0xbf"), new BigInteger("0xc1"),
-			new BigInteger("0xc5"), new BigInteger("0xc7"),
-			new BigInteger("0xd3"), new BigInteger("0xdf"),
-			new BigInteger("0xe3"), new BigInteger("0xe5") };
+	// operands shorter than this many limbs are multiplied by schoolbook
+	// multiplication in karatsuba's base case
+	private static volatile int karatsubaThreshold = 40;
+	// operands shorter than this many limbs are handed down to karatsuba from
+	// toom-cook 3-way multiplication
+	private static volatile int toomCookThreshold = 240;
+	// karatsuba sub-products shorter than this many limbs are not worth
+	// handing to another thread in parallelMultiply
+	private static volatile int parallelThreshold = 1024;
+	// operands at least this many limbs long are multiplied by multiply()
+	// using number-theoretic transforms rather than toom-cook
+	private static volatile int nttThreshold = 1 << 16;
+	// a best-effort cache of the contexts of recent odd moduli given to
+	// modExp, so that repeated exponentiations mod the same N compute R and
+	// R^2 mod N only once, even when callers alternate between a few moduli.
+	// each modulus has one slot, chosen by its hash, and a colliding modulus
+	// simply replaces it. contexts are immutable with final fields, so the
+	// slots need no locking: a thread which misses another's update only
+	// builds a context of its own. callers which need a guarantee should
+	// hold a MontgomeryContext themselves, as RSAPrivateKey does.
+	private static final MontgomeryContext[] contexts = new MontgomeryContext[16];
+	// valueOf(n) for every n below the length of this array, built once so
+	// that small constants and small results are shared rather than
+	// allocated
+	private static final BigInteger[] SMALL_VALUES = smallValues(1024);
+	private static final BigInteger ZERO = valueOf(0);
+	private static final BigInteger ONE = valueOf(1);
+	// all primes below 2^15, used to sieve prime candidates and for trial
+	// division ahead of miller-rabin
+	private static final int[] SMALL_PRIMES = smallPrimes(1 << 15);
+	// list of primes used for rsa key generation: the first 50 primes
+	private static final BigInteger[] PRIMES = new BigInteger[50];
+	// the number of small primes to trial divide by in prime()
+	private static final int TRIAL_DIVISIONS = 256;
+
+	static {
+		for (int i = 0; i < PRIMES.length; i++) {
+			PRIMES[i] = valueOf(SMALL_PRIMES[i]);
+		}
+	}
 
 	private BigInteger(BitSet bits) {
-		this.bits = bits.get(0, nbits = bits.length());
+		this(toIntArray(bits.toLongArray()));
 	}
 
-	private BigInteger(Complex[] coefficients) {
-		coefficients = Arrays.copyOf(coefficients, coefficients.length + 1);
-		coefficients[coefficients.length - 1] = new Complex(0, 0);
-		bits = new BitSet();
-		for (int i = 0; i < coefficients.length; i++) {
-			int d = (int) Math.round(coefficients[i].re());
-			if (i != coefficients.length - 1) {
-				coefficients[i + 1] = coefficients[i + 1].plus(new Complex(
-						d / 16, 0));
-				d %= 16;
-			}
-			for (int j = 4 * i; d > 0; j++) {
-				bits.set(j, (d & 1) == 1);
-				d >>= 1;
+	private BigInteger(double[] coefficients) {
+		// each coefficient is a (rounded) 4 bit digit which may have
+		// overflowed, so we propagate the excess into the next digit as we go
+		int[] mag = new int[(coefficients.length + 16) / 8 + 1];
+		long carry = 0;
+		int i = 0;
+		for (; i < coefficients.length || carry != 0; i++) {
+			long d = carry;
+			if (i < coefficients.length) {
+				d += Math.round(coefficients[i]);
 			}
+			mag[i >>> 3] |= (int) (d & 0xf) << ((i & 7) * 4);
+			carry = d >>> 4;
 		}
-		nbits = bits.length();
+		this.mag = stripLeadingZeros(mag);
+		this.nbits = bitLength(this.mag);
+	}
+
+	// takes ownership of mag, which is little-endian and may contain leading
+	// zero limbs
+	BigInteger(int[] mag) {
+		this.mag = stripLeadingZeros(mag);
+		this.nbits = bitLength(this.mag);
 	}
 
 	BigInteger(String hex) {
-		hex = hex.replaceFirst("^(0x)?0*", "");
-		if (hex.length() == 0) {
-			hex = "0";
-		}
-		nbits = (hex.length() - 1)
-				* 4
-				+ Integer.SIZE
-				- Integer.numberOfLeadingZeros(Character.digit(hex.charAt(0),
-						16));
-		bits = new BitSet(nbits);
-		for (int i = hex.length() - 1, j = 0; i >= 0; i--, j += 4) {
-			int h = Character.digit(hex.charAt(i), 16);
-			for (int k = 0; k < 4; k++) {
-				bits.set(j + k, (h & 1) == 1);
-				h >>= 1;
-			}
+		int start = hex.startsWith("0x") ? 2 : 0;
+		int[] mag = new int[(hex.length() - start + 7) / 8];
+		for (int i = hex.length() - 1, j = 0; i >= start; i--, j++) {
+			mag[j >>> 3] |= Character.digit(hex.charAt(i), 16) << ((j & 7) * 4);
 		}
+		this.mag = stripLeadingZeros(mag);
+		this.nbits = bitLength(this.mag);
 	}
 
 	BigInteger add(BigInteger term, boolean discardOverflow) {
-		BigInteger sum = (BigInteger) clone();
-		sum.nbits = discardOverflow ? sum.nbits : Math.max(this.nbits,
-				term.nbits);
-		boolean carry = false;
-		for (int i = 0; i < sum.nbits; i++) {
-			boolean a = bits.get(i), b = term.bits.get(i);
-			sum.bits.set(i, a ^ b ^ carry);
-			carry = (carry && (a || b)) || (a && b);
-		}
-		if (carry && !discardOverflow) {
-			sum.bits.set(sum.nbits++);
-		}
-		return sum;
+		BigInteger sum = new BigInteger(add(mag, term.mag));
+		return discardOverflow ? sum.lowerBits(nbits) : sum;
 	}
 
 	public BigInteger add(BigInteger term) {
+		if (nbits < 63 && term.nbits < 63) {
+			// the sum is below 2^63, so it cannot overflow a long
+			return valueOf(longValue() + term.longValue());
+		}
 		return add(term, false);
 	}
 
+	private static int[] add(int[] a, int[] b) {
+		if (a.length < b.length) {
+			int[] t = a;
+			a = b;
+			b = t;
+		}
+		int[] sum = new int[a.length + 1];
+		long carry = 0;
+		int i = 0;
+		for (; i < b.length; i++) {
+			carry += (a[i] & LONG_MASK) + (b[i] & LONG_MASK);
+			sum[i] = (int) carry;
+			carry >>>= 32;
+		}
+		for (; i < a.length; i++) {
+			carry += a[i] & LONG_MASK;
+			sum[i] = (int) carry;
+			carry >>>= 32;
+		}
+		sum[i] = (int) carry;
+		return sum;
+	}
+
+	// adds x into result starting at limb offset, propagating the carry as far
+	// as result reaches
+	private static void addInto(int[] result, int[] x, int offset) {
+		long carry = 0;
+		int i = 0;
+		for (; i < x.length && i + offset < result.length; i++) {
+			carry += (result[i + offset] & LONG_MASK) + (x[i] & LONG_MASK);
+			result[i + offset] = (int) carry;
+			carry >>>= 32;
+		}
+		for (i += offset; carry != 0 && i < result.length; i++) {
+			carry += result[i] & LONG_MASK;
+			result[i] = (int) carry;
+			carry >>>= 32;
+		}
+	}
+
 	public BigInteger and(BigInteger conjunction) {
-		BitSet bits = (BitSet) this.bits.clone();
-		bits.and(conjunction.bits);
-		return new BigInteger(bits);
+		int[] mag = new int[Math.min(this.mag.length, conjunction.mag.length)];
+		for (int i = 0; i < mag.length; i++) {
+			mag[i] = this.mag[i] & conjunction.mag[i];
+		}
+		return new BigInteger(mag);
+	}
+
+	private static long[] binaryGcd(long x, long y) {
+		// binary extended gcd (hac 14.61) for positive x, y < 2^62: returns
+		// {g, a} with a * x + b * y = g for some b. only shifts, adds and
+		// subtracts are needed, and the cofactors stay within a long.
+		int k = Long.numberOfTrailingZeros(x | y);
+		x >>= k;
+		y >>= k;
+		long u = x, v = y, A = 1, B = 0, C = 0, D = 1;
+		while (u != 0) {
+			while ((u & 1) == 0) {
+				u >>= 1;
+				if (((A | B) & 1) == 0) {
+					A >>= 1;
+					B >>= 1;
+				} else {
+					A = (A + y) >> 1;
+					B = (B - x) >> 1;
+				}
+			}
+			while ((v & 1) == 0) {
+				v >>= 1;
+				if (((C | D) & 1) == 0) {
+					C >>= 1;
+					D >>= 1;
+				} else {
+					C = (C + y) >> 1;
+					D = (D - x) >> 1;
+				}
+			}
+			if (u >= v) {
+				u -= v;
+				A -= C;
+				B -= D;
+			} else {
+				v -= u;
+				C -= A;
+				D -= B;
+			}
+		}
+		return new long[] { v << k, C };
+	}
+
+	public int bitLength() {
+		return nbits;
+	}
+
+	private static int bitLength(int[] mag) {
+		if (mag.length == 0) {
+			return 0;
+		}
+		return mag.length * Integer.SIZE
+				- Integer.numberOfLeadingZeros(mag[mag.length - 1]);
 	}
 
 	@Override
 	protected Object clone() {
-		BigInteger clone = new BigInteger(bits);
-		clone.nbits = nbits;
-		return clone;
+		return new BigInteger(mag.clone());
 	}
 
 	@Override
@@ -129,12 +248,14 @@ public class BigInteger implements Comparable<BigInteger>, Cloneable {
 		if (cmp != 0) {
 			return cmp;
 		}
-		for (int i = nbits - 1; i >= 0; i--) {
-			boolean a = bits.get(i), b = N.bits.get(i);
-			if (!a && b) {
-				return -1;
-			} else if (a && !b) {
-				return 1;
+		return compareMagnitude(mag, N.mag, mag.length);
+	}
+
+	// compares the lowest len limbs of a and b as unsigned numbers
+	static int compareMagnitude(int[] a, int[] b, int len) {
+		for (int i = len - 1; i >= 0; i--) {
+			if (a[i] != b[i]) {
+				return Integer.compareUnsigned(a[i], b[i]);
 			}
 		}
 		return 0;
@@ -144,7 +265,100 @@ public class BigInteger implements Comparable<BigInteger>, Cloneable {
 		return modExp(d, N);
 	}
 
+	public BigInteger decrypt(RSAPrivateKey key) {
+		return key.decrypt(this);
+	}
+
+	// decrypts a file written by encryptFile (or encryptStream), in parallel
+	// on the common fork-join pool
+	public static void decryptFile(File in, File out, BigInteger N,
+			BigInteger d) throws IOException {
+		decryptFile(in, out, N, d, ForkJoinPool.commonPool());
+	}
+
+	public static void decryptFile(File in, File out, BigInteger N,
+			BigInteger d, ExecutorService executor) throws IOException {
+		new CipherBlocks(N, d).decrypt(in, out, executor);
+	}
+
+	public static void decryptFile(File in, File out, RSAPrivateKey key)
+			throws IOException {
+		decryptFile(in, out, key, ForkJoinPool.commonPool());
+	}
+
+	public static void decryptFile(File in, File out, RSAPrivateKey key,
+			ExecutorService executor) throws IOException {
+		new CipherBlocks(key).decrypt(in, out, executor);
+	}
+
+	// decrypts each block, in parallel on the common fork-join pool, returning
+	// the messages in the same order
+	public static List<BigInteger> decryptBlocks(List<BigInteger> blocks,
+			BigInteger N, BigInteger d) {
+		return decryptBlocks(blocks, N, d, ForkJoinPool.commonPool());
+	}
+
+	public static List<BigInteger> decryptBlocks(List<BigInteger> blocks,
+			BigInteger N, BigInteger d, ExecutorService executor) {
+		return new CipherBlocks(N, d).decrypt(blocks, executor);
+	}
+
+	public static List<BigInteger> decryptBlocks(List<BigInteger> blocks,
+			RSAPrivateKey key) {
+		return decryptBlocks(blocks, key, ForkJoinPool.commonPool());
+	}
+
+	public static List<BigInteger> decryptBlocks(List<BigInteger> blocks,
+			RSAPrivateKey key, ExecutorService executor) {
+		return new CipherBlocks(key).decrypt(blocks, executor);
+	}
+
+	public static void decryptStream(InputStream in, OutputStream out,
+			BigInteger N, BigInteger d) throws IOException {
+		new CipherBlocks(N, d).decrypt(in, out);
+	}
+
+	public static void decryptStream(InputStream in, OutputStream out,
+			RSAPrivateKey key) throws IOException {
+		new CipherBlocks(key).decrypt(in, out);
+	}
+
+	// like decryptStream, but with the blocks decrypted in parallel on the
+	// executor, and only a bounded number of them in memory at once
+	public static void decryptStream(InputStream in, OutputStream out,
+			BigInteger N, BigInteger d, ExecutorService executor)
+			throws IOException {
+		new CipherBlocks(N, d).decrypt(in, out, executor);
+	}
+
+	public static void decryptStream(InputStream in, OutputStream out,
+			RSAPrivateKey key, ExecutorService executor) throws IOException {
+		new CipherBlocks(key).decrypt(in, out, executor);
+	}
+
+	public static void decryptStream(ReadableByteChannel in,
+			WritableByteChannel out, BigInteger N, BigInteger d)
+			throws IOException {
+		new CipherBlocks(N, d).decrypt(Channels.newInputStream(in),
+				Channels.newOutputStream(out));
+	}
+
+	public static void decryptStream(ReadableByteChannel in,
+			WritableByteChannel out, RSAPrivateKey key) throws IOException {
+		new CipherBlocks(key).decrypt(Channels.newInputStream(in),
+				Channels.newOutputStream(out));
+	}
+
 	static String decryptString(String in, BigInteger N, BigInteger d) {
+		return decryptString(in, N, d, null);
+	}
+
+	static String decryptString(String in, RSAPrivateKey key) {
+		return decryptString(in, key.getN(), key.getD(), key);
+	}
+
+	private static String decryptString(String in, BigInteger N,
+			BigInteger d, RSAPrivateKey key) {
 		StringBuilder sb = new StringBuilder();
 		for (int i = 0; i < in.length(); i++) {
 			sb.append(String
@@ -153,15 +367,24 @@ public class BigInteger implements Comparable<BigInteger>, Cloneable {
 		}
 		sb.delete(sb.length() - sb.length() % N.nbits, sb.length());
 		StringBuilder sb2 = new StringBuilder();
+		MontgomeryContext ctx = key == null && N.testBit(0) ? new MontgomeryContext(
+				N) : null;
 		for (int i = 0; i < sb.length(); i += N.nbits) {
 			BitSet b = new BitSet(N.nbits);
 			for (int j = 0; j < N.nbits; j++) {
 				b.set(j, sb.charAt(i + j) == '1');
 			}
 			BigInteger cipher = new BigInteger(b);
-			BigInteger message = cipher.decrypt(N, d);
+			BigInteger message;
+			if (key != null) {
+				message = key.decrypt(cipher);
+			} else if (ctx != null) {
+				message = ctx.modExp(cipher, d);
+			} else {
+				message = cipher.decrypt(N, d);
+			}
 			for (int j = 0; j < N.nbits - 1; j++) {
-				sb2.append(message.bits.get(j) ? '1' : '0');
+				sb2.append(message.testBit(j) ? '1' : '0');
 			}
 		}
 		sb2.reverse().delete(0, sb2.length() % 8);
@@ -173,40 +396,153 @@ public class BigInteger implements Comparable<BigInteger>, Cloneable {
 	}
 
 	public BigInteger divConquerMultiply(BigInteger factor) {
-		if (equals(BigInteger.ZERO) || factor.equals(BigInteger.ZERO)) {
+		if (nbits == 0 || factor.nbits == 0) {
 			return BigInteger.ZERO;
 		}
-		if (equals(BigInteger.ONE)) {
-			return factor;
+		Metrics.record(Operation.KARATSUBA_MULTIPLY,
+				Math.max(nbits, factor.nbits));
+		if (factor == this) {
+			return new BigInteger(karatsubaSquare(mag));
 		}
-		if (factor.equals(BigInteger.ONE)) {
-			return this;
+		return new BigInteger(karatsuba(mag, factor.mag));
+	}
+
+	private static int[][] divide(int[] u, int[] v) {
+		// schoolbook long division, knuth's algorithm d (taocp vol. 2, 4.3.1),
+		// with u >= v and v having no leading zero limbs. returns the quotient
+		// and remainder limbs.
+		int n = v.length, m = u.length - n;
+		int[] q = new int[m + 1];
+		if (n == 1) {
+			long d = v[0] & LONG_MASK, r = 0;
+			for (int i = u.length - 1; i >= 0; i--) {
+				long cur = (r << 32) | (u[i] & LONG_MASK);
+				q[i] = (int) Long.divideUnsigned(cur, d);
+				r = Long.remainderUnsigned(cur, d);
+			}
+			return new int[][] { q, new int[] { (int) r } };
+		}
+		// normalize so that the top limb of the divisor has its high bit set,
+		// which guarantees that each estimated quotient digit is at most two
+		// too large
+		int s = Integer.numberOfLeadingZeros(v[n - 1]);
+		int[] vn = new int[n];
+		for (int i = n - 1; i > 0; i--) {
+			vn[i] = (v[i] << s) | (s == 0 ? 0 : v[i - 1] >>> (32 - s));
 		}
-		int n = Math.max(nbits, factor.nbits);
-		BigInteger L = new BigInteger(bits.get(n / 2, n));
-		BigInteger R = new BigInteger(bits.get(0, n / 2));
-		BigInteger factorL = new BigInteger(factor.bits.get(n / 2, n));
-		BigInteger factorR = new BigInteger(factor.bits.get(0, n / 2));
-		BigInteger P1 = L.divConquerMultiply(factorL);
-		BigInteger P2 = R.divConquerMultiply(factorR);
-		BigInteger P3 = L.add(R).divConquerMultiply(factorL.add(factorR));
-		return P1.leftShift(n - (n & 1))
-				.add(P3.subtract(P1).subtract(P2).leftShift(n / 2)).add(P2);
+		vn[0] = v[0] << s;
+		int[] un = new int[u.length + 1];
+		un[u.length] = s == 0 ? 0 : u[u.length - 1] >>> (32 - s);
+		for (int i = u.length - 1; i > 0; i--) {
+			un[i] = (u[i] << s) | (s == 0 ? 0 : u[i - 1] >>> (32 - s));
+		}
+		un[0] = u[0] << s;
+		long vTop = vn[n - 1] & LONG_MASK, vNext = vn[n - 2] & LONG_MASK;
+		for (int j = m; j >= 0; j--) {
+			// estimate the quotient digit from the top two limbs of the
+			// remainder, then refine it using the next limb
+			long num = ((un[j + n] & LONG_MASK) << 32)
+					| (un[j + n - 1] & LONG_MASK);
+			long qhat = Long.divideUnsigned(num, vTop);
+			long rhat = Long.remainderUnsigned(num, vTop);
+			while (qhat > LONG_MASK
+					|| Long.compareUnsigned(qhat * vNext, (rhat << 32)
+							| (un[j + n - 2] & LONG_MASK)) > 0) {
+				qhat--;
+				rhat += vTop;
+				if (rhat > LONG_MASK) {
+					break;
+				}
+			}
+			// multiply and subtract
+			long k = 0, t;
+			for (int i = 0; i < n; i++) {
+				long p = qhat * (vn[i] & LONG_MASK);
+				t = (un[i + j] & LONG_MASK) - k - (p & LONG_MASK);
+				un[i + j] = (int) t;
+				k = (p >>> 32) - (t >> 32);
+			}
+			t = (un[j + n] & LONG_MASK) - k;
+			un[j + n] = (int) t;
+			q[j] = (int) qhat;
+			if (t < 0) {
+				// the estimate was still one too large, so add back
+				q[j]--;
+				k = 0;
+				for (int i = 0; i < n; i++) {
+					t = (un[i + j] & LONG_MASK) + (vn[i] & LONG_MASK) + k;
+					un[i + j] = (int) t;
+					k = t >>> 32;
+				}
+				un[j + n] += (int) k;
+			}
+		}
+		// unnormalize the remainder
+		int[] r = new int[n];
+		for (int i = 0; i < n; i++) {
+			r[i] = (un[i] >>> s) | (s == 0 ? 0 : un[i + 1] << (32 - s));
+		}
+		return new int[][] { q, r };
 	}
 
 	public BigInteger encrypt(BigInteger N, BigInteger e) {
 		return modExp(e, N);
 	}
 
+	// encrypts a file into the same block layout as encryptStream. both files
+	// are memory mapped a region at a time, and the regions are encrypted in
+	// parallel on the common fork-join pool, so files of any size work.
+	public static void encryptFile(File in, File out, BigInteger N,
+			BigInteger e) throws IOException {
+		encryptFile(in, out, N, e, ForkJoinPool.commonPool());
+	}
+
+	public static void encryptFile(File in, File out, BigInteger N,
+			BigInteger e, ExecutorService executor) throws IOException {
+		new CipherBlocks(N, e).encrypt(in, out, executor);
+	}
+
+	public static List<BigInteger> encryptBlocks(List<BigInteger> blocks,
+			BigInteger N, BigInteger e) {
+		return encryptBlocks(blocks, N, e, ForkJoinPool.commonPool());
+	}
+
+	public static List<BigInteger> encryptBlocks(List<BigInteger> blocks,
+			BigInteger N, BigInteger e, ExecutorService executor) {
+		return new CipherBlocks(N, e).encrypt(blocks, executor);
+	}
+
+	// encrypts everything up to the end of in, as fixed-width big-endian
+	// cipher blocks (see CipherBlocks for the layout), using constant memory
+	public static void encryptStream(InputStream in, OutputStream out,
+			BigInteger N, BigInteger e) throws IOException {
+		new CipherBlocks(N, e).encrypt(in, out);
+	}
+
+	public static void encryptStream(InputStream in, OutputStream out,
+			BigInteger N, BigInteger e, ExecutorService executor)
+			throws IOException {
+		new CipherBlocks(N, e).encrypt(in, out, executor);
+	}
+
+	public static void encryptStream(ReadableByteChannel in,
+			WritableByteChannel out, BigInteger N, BigInteger e)
+			throws IOException {
+		new CipherBlocks(N, e).encrypt(Channels.newInputStream(in),
+				Channels.newOutputStream(out));
+	}
+
 	static String encryptString(String in, BigInteger N, BigInteger e) {
 		BitSet bits = BitSet.valueOf(in.getBytes());
 		StringBuilder sb = new StringBuilder();
+		MontgomeryContext ctx = N.testBit(0) ? new MontgomeryContext(N) : null;
 		for (int i = 0; i < in.getBytes().length * Byte.SIZE; i += N.nbits - 1) {
 			BitSet b = bits.get(i, i + N.nbits - 1);
 			BigInteger message = new BigInteger(b);
-			BigInteger cipher = message.encrypt(N, e);
+			BigInteger cipher = ctx != null ? ctx.modExp(message, e) : message
+					.encrypt(N, e);
 			for (int j = 0; j < N.nbits; j++) {
-				sb.append(cipher.bits.get(j) ? '1' : '0');
+				sb.append(cipher.testBit(j) ? '1' : '0');
 			}
 		}
 		StringBuilder sb2 = new StringBuilder();
@@ -228,25 +564,61 @@ public class BigInteger implements Comparable<BigInteger>, Cloneable {
 	}
 
 	public BigInteger[] euclid(BigInteger y) {
-		// notice that the signs of a and b swap with each recursive step, with
-		// a starting non-negative
-		if (y.equals(BigInteger.ZERO)) {
-			return new BigInteger[] { BigInteger.ONE, BigInteger.ZERO, this,
-					BigInteger.ZERO };
+		// kept for compatibility: returns {a, b, gcd, sign} where sign is zero
+		// when this * a - y * b = gcd, and one when y * b - this * a = gcd
+		if (nbits == 0) {
+			return new BigInteger[] { BigInteger.ZERO, BigInteger.ONE, y,
+					BigInteger.ONE };
 		}
-		BigInteger[] e = y.euclid(quadDivision(y)[1]);
-		e[1] = e[0].add(quadDivision(y)[0].quadMultiply(e[0] = e[1]));
-		e[3] = BigInteger.ONE.subtract(e[3]);
-		return e;
+		BigInteger[] e = extendedGcd(y);
+		return new BigInteger[] { e[1], e[2], e[0], BigInteger.ZERO };
 	}
 
+	public BigInteger[] extendedGcd(BigInteger y) {
+		// returns {g, s, t} with g = gcd(this, y) and this * s - y * t = g,
+		// where 1 <= s <= y / g and t >= 0. if this is zero, then g = y and
+		// s = t = 0, and if y is zero, then g = this, s = 1 and t = 0.
+		if (nbits == 0) {
+			return new BigInteger[] { y, BigInteger.ZERO, BigInteger.ZERO };
+		}
+		if (y.nbits == 0) {
+			return new BigInteger[] { this, BigInteger.ONE, BigInteger.ZERO };
+		}
+		BigInteger g, s;
+		boolean negative;
+		if (nbits <= 62 && y.nbits <= 62) {
+			long[] e = binaryGcd(longValue(), y.longValue());
+			g = valueOf(e[0]);
+			negative = e[1] < 0;
+			s = valueOf(Math.abs(e[1]));
+		} else {
+			BigInteger[] e = lehmerGcd(this, y, true);
+			g = e[0];
+			negative = e[2].equals(BigInteger.ONE);
+			s = e[1];
+		}
+		// bring s into [1, y / g], after which t follows exactly
+		BigInteger yg = y.quadDivision(g)[0];
+		s = s.compareTo(yg) < 0 ? s : s.quadDivision(yg)[1];
+		if (negative && s.nbits != 0) {
+			s = yg.subtract(s);
+		}
+		if (s.nbits == 0) {
+			s = yg;
+		}
+		BigInteger t = multiply(s).subtract(g).quadDivision(y)[0];
+		return new BigInteger[] { g, s, t };
+	}
 	public BigInteger fftMultiply(BigInteger factor) {
+		return fftMultiply(factor, null);
+	}
+
+	private BigInteger fftMultiply(BigInteger factor, ForkJoinPool pool) {
 		if (equals(BigInteger.ZERO) || factor.equals(BigInteger.ZERO)) {
 			return BigInteger.ZERO;
 		}
-		Complex[] a = toComplexArray();
-		Complex[] b = factor.toComplexArray();
-		int N = a.length + b.length - 1;
+		Metrics.record(Operation.FFT_MULTIPLY, Math.max(nbits, factor.nbits));
+		int N = (nbits + 3) / 4 + (factor.nbits + 3) / 4 - 1;
 		// find next highest power of two:
 		// http://graphics.stanford.edu/~seander/bithacks.html
 		int M = N;
@@ -255,41 +627,87 @@ public class BigInteger implements Comparable<BigInteger>, Cloneable {
 			M |= M >> i;
 		}
 		M++;
-		Complex[] A = Arrays.copyOf(a, M);
-		for (int i = a.length; i < M; i++) {
-			A[i] = new Complex(0, 0);
-		}
-		Complex[] B = Arrays.copyOf(b, M);
-		for (int i = b.length; i < M; i++) {
-			B[i] = new Complex(0, 0);
+		double[] re = toDigitArray(M), im = new double[M];
+		if (pool == null) {
+			Complex.fft(re, im, false);
+		} else {
+			Complex.parallelFft(re, im, false, pool);
 		}
-		int[] c = { 0xAAAAAAAA, 0xCCCCCCCC, 0xF0F0F0F0, 0xFF00FF00, 0xFFFF0000 };
-		// find log base two:
-		// http://graphics.stanford.edu/~seander/bithacks.html
-		int n = 0;
-		for (int i = 0; i < c.length; i++) {
-			n |= ((M & c[i]) != 0 ? 1 : 0) << i;
+		// squaring only needs the one forward transform
+		double[] re_ = re, im_ = im;
+		if (factor != this) {
+			re_ = factor.toDigitArray(M);
+			im_ = new double[M];
+			if (pool == null) {
+				Complex.fft(re_, im_, false);
+			} else {
+				Complex.parallelFft(re_, im_, false, pool);
+			}
 		}
-		Complex[] fft = Complex.fft(A, n);
-		Complex[] fft_ = Complex.fft(B, n);
 		for (int i = 0; i < M; i++) {
-			fft[i] = fft[i].times(fft_[i]);
+			double r = re[i] * re_[i] - im[i] * im_[i];
+			im[i] = re[i] * im_[i] + im[i] * re_[i];
+			re[i] = r;
+		}
+		if (pool == null) {
+			Complex.fft(re, im, true);
+		} else {
+			Complex.parallelFft(re, im, true, pool);
+		}
+		return new BigInteger(Arrays.copyOf(re, N));
+	}
+
+	// the unsigned big-endian number in b
+	public static BigInteger fromByteArray(byte[] b) {
+		return fromByteArray(b, 0, b.length);
+	}
+
+	public static BigInteger fromByteArray(byte[] b, ByteOrder order) {
+		if (order == ByteOrder.BIG_ENDIAN) {
+			return fromByteArray(b);
+		}
+		int[] mag = new int[(b.length + 3) / 4];
+		for (int i = 0; i < b.length; i++) {
+			mag[i >>> 2] |= (b[i] & 0xff) << ((i & 3) * 8);
 		}
-		return new BigInteger(Arrays.copyOf(Complex.ifft(fft, n), N));
+		return new BigInteger(mag);
+	}
+
+	// the big-endian number in b[off..off + len)
+	static BigInteger fromByteArray(byte[] b, int off, int len) {
+		return fromByteBuffer(ByteBuffer.wrap(b), off, len);
+	}
+
+	// the big-endian number in the len bytes of b from index on, read without
+	// moving the position of b
+	static BigInteger fromByteBuffer(ByteBuffer b, int index, int len) {
+		int[] mag = new int[(len + 3) / 4];
+		for (int i = 0; i < len; i++) {
+			mag[i >>> 2] |= (b.get(index + len - 1 - i) & 0xff) << ((i & 3) * 8);
+		}
+		return new BigInteger(mag);
+	}
+
+	public BigInteger gcd(BigInteger y) {
+		if (nbits == 0 || y.nbits == 0) {
+			return nbits == 0 ? y : this;
+		}
+		if (nbits <= 62 && y.nbits <= 62) {
+			return valueOf(binaryGcd(longValue(), y.longValue())[0]);
+		}
+		return lehmerGcd(this, y, false)[0];
 	}
 
 	public static BigInteger[] generateRSA(int n) {
-		BigInteger p = BigInteger.newPrime(n, EPSILON);
-		BigInteger q = BigInteger.newPrime(n, EPSILON);
-		return generateRSA(p, q);
+		return generateRSAKey(n).toArray();
 	}
 
 	public static BigInteger[] generateRSA(BigInteger p, BigInteger q) {
-		BigInteger N = p.quadMultiply(q);
+		BigInteger N = p.multiply(q);
 		BigInteger phi = N.subtract(p).subtract(q).add(BigInteger.ONE);
 		BigInteger e = null;
 		for (int i = 0; i < PRIMES.length; i++) {
-			if ((e = PRIMES[i]).euclid(phi)[2].equals(BigInteger.ONE)) {
+			if ((e = PRIMES[i]).gcd(phi).equals(BigInteger.ONE)) {
 				break;
 			}
 		}
@@ -300,62 +718,505 @@ public class BigInteger implements Comparable<BigInteger>, Cloneable {
 		return new BigInteger[] { N, e, d };
 	}
 
+	public static RSAPrivateKey generateRSAKey(int n) {
+		KeyGenerationEvent event = new KeyGenerationEvent(n, false);
+		event.begin();
+		BigInteger p = BigInteger.newPrime(n, EPSILON);
+		BigInteger q = BigInteger.newPrime(n, EPSILON);
+		// crt needs distinct factors, which small n does not guarantee
+		while (q.equals(p)) {
+			q = BigInteger.newPrime(n, EPSILON);
+		}
+		RSAPrivateKey key = generateRSAKey(p, q);
+		event.commit();
+		return key;
+	}
+
+	public static RSAPrivateKey generateRSAKey(BigInteger p, BigInteger q) {
+		BigInteger[] keys = generateRSA(p, q);
+		return new RSAPrivateKey(p, q, keys[1], keys[2]);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(mag);
+	}
+
+	public static int getKaratsubaThreshold() {
+		return karatsubaThreshold;
+	}
+
+	public static int getNttThreshold() {
+		return nttThreshold;
+	}
+
+	public static int getParallelThreshold() {
+		return parallelThreshold;
+	}
+
+	public static int getToomCookThreshold() {
+		return toomCookThreshold;
+	}
+
+	private static int[] karatsuba(int[] a, int[] b) {
+		return karatsuba(a, b, karatsubaThreshold);
+	}
+
+	// karatsuba with its own threshold, so that Calibration can time it
+	// without touching the one multiply() uses
+	static int[] karatsuba(int[] a, int[] b, int threshold) {
+		a = stripLeadingZeros(a);
+		b = stripLeadingZeros(b);
+		if (a.length < b.length) {
+			int[] t = a;
+			a = b;
+			b = t;
+		}
+		if (b.length < threshold) {
+			return quadMultiply(a, b);
+		}
+		int half = (a.length + 1) / 2;
+		int[] product = new int[a.length + b.length];
+		if (b.length <= half) {
+			// the operands are too unbalanced to split at the same point, so
+			// multiply b by each b-sized slice of a instead of padding b
+			for (int i = 0; i < a.length; i += b.length) {
+				int[] slice = Arrays.copyOfRange(a, i,
+						Math.min(i + b.length, a.length));
+				addInto(product, karatsuba(slice, b, threshold), i);
+			}
+			return product;
+		}
+		int[] aR = Arrays.copyOf(a, half), aL = Arrays.copyOfRange(a, half,
+				a.length);
+		int[] bR = Arrays.copyOf(b, half), bL = Arrays.copyOfRange(b, half,
+				b.length);
+		int[] P1 = karatsuba(aL, bL, threshold);
+		int[] P2 = karatsuba(aR, bR, threshold);
+		int[] P3 = karatsuba(add(aL, aR), add(bL, bR), threshold);
+		addInto(product, P2, 0);
+		addInto(product, subtract(subtract(P3, P1), P2), half);
+		addInto(product, P1, 2 * half);
+		return product;
+	}
+
+	private static int[] karatsubaSquare(int[] a) {
+		a = stripLeadingZeros(a);
+		if (a.length < karatsubaThreshold) {
+			return quadSquare(a);
+		}
+		int half = (a.length + 1) / 2;
+		int[] aR = Arrays.copyOf(a, half), aL = Arrays.copyOfRange(a, half,
+				a.length);
+		int[] P1 = karatsubaSquare(aL);
+		int[] P2 = karatsubaSquare(aR);
+		int[] P3 = karatsubaSquare(add(aL, aR));
+		int[] square = new int[2 * a.length];
+		addInto(square, P2, 0);
+		addInto(square, subtract(subtract(P3, P1), P2), half);
+		addInto(square, P1, 2 * half);
+		return square;
+	}
+
+	private static BigInteger[] lehmerGcd(BigInteger a, BigInteger b,
+			boolean cofactor) {
+		// lehmer's gcd (hac 14.57): runs euclid on the leading 62 bits of a
+		// and b for as long as the quotients are certain to agree with the
+		// full precision ones, then applies the accumulated matrix to a and b
+		// at once. the cofactors s_i of a alternate in sign, so only their
+		// magnitudes (s0, s1) and the parity of the step count are tracked.
+		// returns {gcd, |s|, parity}.
+		BigInteger s0 = BigInteger.ONE, s1 = BigInteger.ZERO;
+		int steps = 0;
+		if (a.compareTo(b) < 0) {
+			// the first euclid step has quotient zero and just swaps a and b
+			BigInteger t = a;
+			a = b;
+			b = t;
+			s0 = BigInteger.ZERO;
+			s1 = BigInteger.ONE;
+			steps++;
+		}
+		while (b.nbits != 0) {
+			long A = 1, B = 0, C = 0, D = 1;
+			int j = 0;
+			if (a.nbits <= 62) {
+				// both fit in a long, so euclid runs exactly on longs and the
+				// matrix is applied once at the end
+				long x = a.longValue(), y = b.longValue();
+				while (y != 0) {
+					long q = x / y, t = x - q * y;
+					x = y;
+					y = t;
+					t = A - q * C;
+					A = C;
+					C = t;
+					t = B - q * D;
+					B = D;
+					D = t;
+					j++;
+				}
+			} else {
+				int shift = a.nbits - 62;
+				long x = a.rightShift(shift).longValue();
+				long y = b.rightShift(shift).longValue();
+				while (y + C != 0 && y + D != 0) {
+					long q = (x + A) / (y + C);
+					if (q != (x + B) / (y + D)) {
+						break;
+					}
+					long t = A - q * C;
+					A = C;
+					C = t;
+					t = B - q * D;
+					B = D;
+					D = t;
+					t = x - q * y;
+					x = y;
+					y = t;
+					j++;
+				}
+			}
+			if (B == 0) {
+				// no quotient could be determined from the leading bits, so
+				// take a single full precision step
+				BigInteger[] qr = a.quadDivision(b);
+				a = b;
+				b = qr[1];
+				if (cofactor) {
+					BigInteger s = s0.add(qr[0].multiply(s1));
+					s0 = s1;
+					s1 = s;
+				}
+				steps++;
+				continue;
+			}
+			BigInteger x = lehmerCombine(A, a, B, b);
+			b = lehmerCombine(C, a, D, b);
+			a = x;
+			if (cofactor) {
+				// the two terms of each cofactor have the same sign, so
+				// their magnitudes add
+				x = valueOf(Math.abs(A)).multiply(s0).add(
+						valueOf(Math.abs(B)).multiply(s1));
+				s1 = valueOf(Math.abs(C)).multiply(s0).add(
+						valueOf(Math.abs(D)).multiply(s1));
+				s0 = x;
+			}
+			steps += j;
+		}
+		return new BigInteger[] { a, s0,
+				(steps & 1) == 1 ? BigInteger.ONE : BigInteger.ZERO };
+	}
+
+	// returns A * x + B * y, which is known to be non-negative
+	private static BigInteger lehmerCombine(long A, BigInteger x, long B,
+			BigInteger y) {
+		BigInteger ax = valueOf(Math.abs(A)).multiply(x);
+		BigInteger by = valueOf(Math.abs(B)).multiply(y);
+		if (A >= 0 && B >= 0) {
+			return ax.add(by);
+		}
+		return A >= 0 ? ax.subtract(by) : by.subtract(ax);
+	}
+
 	public BigInteger leftShift(int n) {
-		BitSet bits = new BitSet(nbits + n);
-		for (int i = 0; i < nbits; i++) {
-			bits.set(n + i, this.bits.get(i));
+		if (nbits == 0) {
+			return this;
+		}
+		int words = n >>> 5, shift = n & 31;
+		int[] mag = new int[this.mag.length + words + 1];
+		for (int i = 0; i < this.mag.length; i++) {
+			mag[i + words] |= this.mag[i] << shift;
+			if (shift != 0) {
+				mag[i + words + 1] = this.mag[i] >>> (32 - shift);
+			}
+		}
+		return new BigInteger(mag);
+	}
+
+	// returns this mod 2^n
+	private BigInteger lowerBits(int n) {
+		if (n >= nbits) {
+			return this;
+		}
+		int[] mag = Arrays.copyOf(this.mag, (n + 31) >>> 5);
+		if ((n & 31) != 0) {
+			mag[mag.length - 1] &= (1 << (n & 31)) - 1;
+		}
+		return new BigInteger(mag);
+	}
+
+	// the low 64 bits of this
+	long longValue() {
+		long value = 0;
+		for (int i = Math.min(mag.length, 2) - 1; i >= 0; i--) {
+			value = (value << 32) | (mag[i] & LONG_MASK);
 		}
-		return new BigInteger(bits);
+		return value;
 	}
 
 	public BigInteger modAdd(BigInteger term, BigInteger modulus) {
 		return add(term).quadDivision(modulus)[1];
 	}
 
+	public BigInteger modAdd(BigInteger term, BarrettReducer reducer) {
+		return reducer.reduce(add(term));
+	}
+
 	public BigInteger modDivide(BigInteger divisor, BigInteger modulus)
 			throws NotInvertibleException {
-		return modQuadMultiply(divisor.modInverse(modulus), modulus);
+		return modMultiply(divisor.modInverse(modulus), modulus);
+	}
+
+	public BigInteger modDivide(BigInteger divisor, BarrettReducer reducer)
+			throws NotInvertibleException {
+		return modMultiply(divisor.modInverse(reducer.getModulus()), reducer);
 	}
 
 	public BigInteger modExp(BigInteger exp, BigInteger modulus) {
 		if (exp.equals(BigInteger.ZERO)) {
 			return BigInteger.ONE;
 		}
-		BigInteger x = modExp(exp.rightShift(1), modulus);
-		x = x.quadMultiply(x);
-		if (exp.and(BigInteger.ONE).equals(BigInteger.ONE)) {
-			x = x.quadMultiply(this);
+		if (modulus.testBit(0)) {
+			return montgomeryContext(modulus).modExp(this, exp);
 		}
-		return x.quadDivision(modulus)[1];
+		return modExp(exp, new BarrettReducer(modulus));
+	}
+
+	public BigInteger modExp(BigInteger exp, BarrettReducer reducer) {
+		if (exp.equals(BigInteger.ZERO)) {
+			return BigInteger.ONE;
+		}
+		int bits = reducer.getModulus().nbits;
+		Metrics.record(Operation.BARRETT_EXP, bits);
+		ModExpEvent event = new ModExpEvent(bits, exp.nbits, "barrett");
+		event.begin();
+		// left-to-right sliding window exponentiation over a table of the odd
+		// powers this^1, this^3, ..., this^(2^k - 1). the running value moves
+		// between two mutable buffers, so that the loop does not allocate.
+		int k = windowSize(exp.nbits);
+		int n = reducer.getModulus().mag.length;
+		final MutableBigInteger[] xt = { new MutableBigInteger(2 * n + 2),
+				new MutableBigInteger(2 * n + 2) };
+		final int[] q = reducer.scratch();
+		int[][] table = new int[1 << (k - 1)][];
+		table[0] = Arrays.copyOf(quadDivision(reducer.getModulus())[1].mag, n);
+		if (table.length > 1) {
+			int[] b2 = new int[n];
+			reducer.square(table[0], xt[0], q);
+			xt[0].toLimbs(b2, n);
+			for (int i = 1; i < table.length; i++) {
+				table[i] = new int[n];
+				reducer.multiply(table[i - 1], b2, xt[0], q);
+				xt[0].toLimbs(table[i], n);
+			}
+		}
+		// xt[0] holds the running value and xt[1] takes each result
+		windowScan(exp, k, new WindowSteps() {
+			public void multiply(int index) {
+				reducer.multiply(xt[0].value, table[index], xt[1], q);
+				swap();
+			}
+
+			public void square() {
+				reducer.square(xt[0].value, xt[1], q);
+				swap();
+			}
+
+			public void start(int index) {
+				xt[0].setValue(table[index]);
+			}
+
+			private void swap() {
+				MutableBigInteger swap = xt[0];
+				xt[0] = xt[1];
+				xt[1] = swap;
+			}
+		});
+		event.commit();
+		return xt[0].toBigInteger();
 	}
 
 	public BigInteger modInverse(BigInteger modulus)
 			throws NotInvertibleException {
-		BigInteger[] e = euclid(modulus);
-		if (!e[2].equals(BigInteger.ONE)) {
+		BigInteger[] e = extendedGcd(modulus);
+		if (!e[0].equals(BigInteger.ONE)) {
 			throw new NotInvertibleException("no modular inverse exists");
 		}
-		return e[3].equals(BigInteger.ONE) ? modulus.subtract(e[0]) : e[0];
+		return e[1].compareTo(modulus) < 0 ? e[1] : e[1].quadDivision(modulus)[1];
+	}
+
+	public BigInteger modMultiply(BigInteger factor, BigInteger modulus) {
+		return multiply(factor).quadDivision(modulus)[1];
+	}
+
+	public BigInteger modMultiply(BigInteger factor, BarrettReducer reducer) {
+		return reducer.reduce(multiply(factor));
+	}
+
+	public BigInteger modSquare(BigInteger modulus) {
+		return square().quadDivision(modulus)[1];
+	}
+
+	public BigInteger modSquare(BarrettReducer reducer) {
+		return reducer.reduce(square());
 	}
 
 	public BigInteger modQuadMultiply(BigInteger factor, BigInteger modulus) {
 		return quadMultiply(factor).quadDivision(modulus)[1];
 	}
 
+	public BigInteger modQuadMultiply(BigInteger factor,
+			BarrettReducer reducer) {
+		return reducer.reduce(quadMultiply(factor));
+	}
+
+	static MontgomeryContext montgomeryContext(BigInteger modulus) {
+		int slot = modulus.hashCode() & (contexts.length - 1);
+		MontgomeryContext ctx = contexts[slot];
+		if (ctx == null || !ctx.getModulus().equals(modulus)) {
+			ctx = new MontgomeryContext(modulus);
+			contexts[slot] = ctx;
+		}
+		return ctx;
+	}
+
+	public BigInteger multiply(BigInteger factor) {
+		if (nbits == 0 || factor.nbits == 0) {
+			return BigInteger.ZERO;
+		}
+		if (nbits + factor.nbits <= 63) {
+			// the product is below 2^(nbits + factor.nbits), so it cannot
+			// overflow a long
+			return valueOf(longValue() * factor.longValue());
+		}
+		if (factor == this) {
+			return square();
+		}
+		return new BigInteger(multiply(mag, factor.mag));
+	}
+
+	static int[] multiply(int[] a, int[] b) {
+		// picks the algorithm from the operand lengths: schoolbook below the
+		// karatsuba threshold, then karatsuba, toom-cook 3 and finally ntt.
+		// the first three are already chained through their own base cases.
+		int bits = 32 * Math.max(a.length, b.length);
+		if (Math.min(a.length, b.length) < karatsubaThreshold) {
+			Metrics.record(Operation.QUAD_MULTIPLY, bits);
+			return quadMultiply(a, b);
+		}
+		if (Math.min(a.length, b.length) >= nttThreshold
+				&& 2 * (a.length + b.length) <= NumberTheoreticTransform.MAX_LENGTH) {
+			Metrics.record(Operation.NTT_MULTIPLY, bits);
+			return NumberTheoreticTransform.multiply(a, b);
+		}
+		// toomCook3 hands operands below its threshold straight to karatsuba
+		Metrics.record(Math.min(a.length, b.length) < toomCookThreshold
+				? Operation.KARATSUBA_MULTIPLY : Operation.TOOM_COOK_3_MULTIPLY,
+				bits);
+		return toomCook3(a, b);
+	}
+
 	public static BigInteger newPrime(int n, float prob) {
-		// we generate random numbers until we find one which passes our
-		// iterated miller-rabin primality test. since we specify our failure
-		// probability for the primality test, we can be sure that a number
-		// returned by this algorithm is prime with probability prob, since it
-		// will only return if it passes the test.
-		BigInteger x = BigInteger.random(n, null);
-		while (!x.prime(prob)) {
-			x = BigInteger.random(n, null);
+		return newPrime(n, prob, null);
+	}
+
+	public static BigInteger newPrime(int n, float prob, Random gen) {
+		// we search upwards from a random odd n-bit number (top bit set, so
+		// that the result really has n bits) until we find one which passes
+		// our iterated miller-rabin primality test. since we specify our
+		// failure probability for the primality test, we can be sure that a
+		// number returned by this algorithm is prime with probability prob,
+		// since it will only return if it passes the test.
+		Metrics.record(Operation.NEW_PRIME, n);
+		BigInteger x = primeSearchStart(n, gen);
+		while (true) {
+			BigInteger p = primeSearchWindow(x, n, prob);
+			if (p != null) {
+				return p;
+			}
+			x = x.add(valueOf(2L * primeSearchWindowSize(n)));
+			if (x.nbits > n) {
+				x = primeSearchStart(n, gen);
+			}
+		}
+	}
+
+	// reads a number written by writeTo, i.e. a limb count followed by the
+	// limbs, least significant first, as ints in the byte order of b
+	public static BigInteger readFrom(ByteBuffer b) {
+		int limbs = b.getInt();
+		if (limbs < 0 || limbs > b.remaining() / 4) {
+			b.position(b.position() - 4);
+			throw new BufferUnderflowException();
 		}
-		return x;
+		int[] mag = new int[limbs];
+		b.asIntBuffer().get(mag);
+		b.position(b.position() + 4 * limbs);
+		return new BigInteger(mag);
+	}
+
+	public static RSAPrivateKey parallelGenerateRSAKey(int n) {
+		return parallelGenerateRSAKey(n, ForkJoinPool.commonPool(), null);
+	}
+
+	public static RSAPrivateKey parallelGenerateRSAKey(int n,
+			ExecutorService executor, Random gen) {
+		// p and then q, each searched for by every task on the executor, in
+		// the same order as generateRSAKey draws them
+		KeyGenerationEvent event = new KeyGenerationEvent(n, true);
+		event.begin();
+		if (gen == null) {
+			gen = RANDOM;
+		}
+		BigInteger p = new PrimeSearch(n, EPSILON, executor, gen).find();
+		BigInteger q = new PrimeSearch(n, EPSILON, executor, gen).find();
+		// crt needs distinct factors, which small n does not guarantee
+		while (q.equals(p)) {
+			q = new PrimeSearch(n, EPSILON, executor, gen).find();
+		}
+		RSAPrivateKey key = generateRSAKey(p, q);
+		event.commit();
+		return key;
+	}
+
+	public static BigInteger parallelNewPrime(int n, float prob) {
+		return parallelNewPrime(n, prob, ForkJoinPool.commonPool(), null);
+	}
+
+	public static BigInteger parallelNewPrime(int n, float prob,
+			ExecutorService executor, Random gen) {
+		Metrics.record(Operation.NEW_PRIME, n);
+		return new PrimeSearch(n, prob, executor, gen == null ? RANDOM : gen)
+				.find();
 	}
 
 	public boolean prime(float prob) {
+		return prime(prob, false);
+	}
+
+	// sieved says that this has already been sieved by every odd prime
+	// below 2^15 (see primeSearchWindow), so that trial division would find
+	// nothing
+	private boolean prime(float prob, boolean sieved) {
+		Metrics.record(Operation.PRIME_TEST, nbits);
+		// trial division first: this settles every number below 2^30
+		// exactly, and rejects most composites without any exponentiation.
+		// a sieved odd number below 2^30 has no factor up to its square root,
+		// so it is prime.
+		if (sieved && nbits <= 30) {
+			return true;
+		}
+		for (int i = 0; !sieved && (i < TRIAL_DIVISIONS || nbits <= 30); i++) {
+			int p = SMALL_PRIMES[i];
+			if (nbits <= 30 && (long) p * p > longValue()) {
+				return compareTo(BigInteger.ONE) > 0;
+			}
+			if (remainder(p) == 0) {
+				return equals(valueOf(p));
+			}
+		}
 		// since the miller-rabin primality test used by this method has
 		// probability 1/4 of giving a false positive, applying the test k times
 		// has a probability 1/4^k of giving a false positive. we thus start
@@ -364,8 +1225,10 @@ public class BigInteger implements Comparable<BigInteger>, Cloneable {
 		// below the argument prob, we are done. the loop used here is
 		// essentially just reversed, i.e. we start with prob and multiply it by
 		// 4 after each iteration, terminating when we rise above 1.
+		MontgomeryContext ctx = testBit(0) ? new MontgomeryContext(this)
+				: null;
 		for (int i = 0; prob < 1.0; i++, prob *= 4.0) {
-			if (!primeTest(PRIMES[i])) {
+			if (!primeTest(PRIMES[i], ctx)) {
 				return false;
 			}
 		}
@@ -373,26 +1236,53 @@ public class BigInteger implements Comparable<BigInteger>, Cloneable {
 	}
 
 	public boolean primeTest(BigInteger a) {
+		return primeTest(a, testBit(0) ? new MontgomeryContext(this) : null);
+	}
+
+	private boolean primeTest(BigInteger a, MontgomeryContext ctx) {
 		// miller-rabin primality test: probability 1/4 of giving a false
 		// positive, not susceptible to carmichael numbers
 		if (compareTo(BigInteger.ONE) <= 0) {
 			return false;
 		}
-		int s = 0;
+		// this - 1 = 2^s * d with d odd
 		BigInteger d = subtract(BigInteger.ONE);
-		BigInteger q = d.rightShift(1);
-		BigInteger r = d.and(BigInteger.ONE);
-		while (r.equals(BigInteger.ZERO)) {
-			d = q;
+		int s = 0;
+		while (!d.testBit(s)) {
 			s++;
-			q = d.rightShift(1);
-			r = d.and(BigInteger.ONE);
 		}
-		BigInteger x = a.modExp(d, this);
-		if (!x.equals(BigInteger.ONE) && !x.equals(subtract(BigInteger.ONE))) {
+		d = d.rightShift(s);
+		if (ctx != null) {
+			// the squarings stay in montgomery form, comparing against -1 in
+			// montgomery form instead of converting back each time
+			BigInteger x = ctx.montExp(a, d);
+			BigInteger minusOne = subtract(ctx.one());
+			if (!x.equals(ctx.one()) && !x.equals(minusOne)) {
+				for (int i = 1; i < s; i++) {
+					x = ctx.montSquare(x);
+					if (x.equals(minusOne)) {
+						return true;
+					}
+				}
+				return false;
+			}
+			return true;
+		}
+		// an even modulus: barrett reduction, with mu computed once for all
+		// of the squarings
+		BarrettReducer reducer = new BarrettReducer(this);
+		int[] minusOne = subtract(BigInteger.ONE).mag;
+		MutableBigInteger x = new MutableBigInteger(2 * mag.length + 2);
+		MutableBigInteger t = new MutableBigInteger(2 * mag.length + 2);
+		int[] q = reducer.scratch();
+		x.setValue(a.modExp(d, reducer).mag);
+		if (x.compareTo(BigInteger.ONE.mag) != 0 && x.compareTo(minusOne) != 0) {
 			for (int i = 1; i < s; i++) {
-				x = x.modQuadMultiply(x, this);
-				if (x.equals(subtract(BigInteger.ONE))) {
+				reducer.square(x.value, t, q);
+				MutableBigInteger swap = x;
+				x = t;
+				t = swap;
+				if (x.compareTo(minusOne) == 0) {
 					return true;
 				}
 			}
@@ -405,107 +1295,879 @@ public class BigInteger implements Comparable<BigInteger>, Cloneable {
 		if (divisor.equals(BigInteger.ZERO)) {
 			throw new ArithmeticException("division or modulo by zero");
 		}
-		if (equals(BigInteger.ZERO)) {
-			return new BigInteger[] { BigInteger.ZERO, BigInteger.ZERO };
+		if (compareTo(divisor) < 0) {
+			return new BigInteger[] { BigInteger.ZERO, this };
 		}
-		BigInteger[] qr = rightShift(1).quadDivision(divisor);
-		qr[0] = qr[0].add(qr[0]);
-		qr[1] = qr[1].add(qr[1]);
-		if (and(BigInteger.ONE).equals(BigInteger.ONE)) {
-			qr[1] = qr[1].add(BigInteger.ONE);
+		if (nbits <= 63) {
+			long x = longValue(), y = divisor.longValue();
+			return new BigInteger[] { valueOf(x / y), valueOf(x % y) };
 		}
-		if (qr[1].compareTo(divisor) >= 0) {
-			qr[1] = qr[1].subtract(divisor);
-			qr[0] = qr[0].add(BigInteger.ONE);
+		Metrics.record(Operation.QUAD_DIVISION, nbits);
+		int[][] qr = divide(mag, divisor.mag);
+		return new BigInteger[] { new BigInteger(qr[0]),
+				new BigInteger(qr[1]) };
+	}
+
+	public BigInteger nttMultiply(BigInteger factor) {
+		if (nbits == 0 || factor.nbits == 0) {
+			return BigInteger.ZERO;
 		}
-		return qr;
+		Metrics.record(Operation.NTT_MULTIPLY, Math.max(nbits, factor.nbits));
+		return new BigInteger(NumberTheoreticTransform.multiply(mag,
+				factor.mag));
+	}
+
+	public BigInteger parallelFftMultiply(BigInteger factor) {
+		return parallelFftMultiply(factor, ForkJoinPool.commonPool());
+	}
+
+	public BigInteger parallelFftMultiply(BigInteger factor, ForkJoinPool pool) {
+		return fftMultiply(factor, pool);
+	}
+
+	public BigInteger parallelMultiply(BigInteger factor) {
+		return parallelMultiply(factor, ForkJoinPool.commonPool());
+	}
+
+	public BigInteger parallelMultiply(BigInteger factor, ForkJoinPool pool) {
+		// karatsuba with its sub-products computed as fork-join tasks. the
+		// split points and the order in which partial products are combined
+		// are the same as in divConquerMultiply, so the result is identical.
+		if (nbits == 0 || factor.nbits == 0) {
+			return BigInteger.ZERO;
+		}
+		Metrics.record(Operation.PARALLEL_MULTIPLY,
+				Math.max(nbits, factor.nbits));
+		return new BigInteger(pool.invoke(new KaratsubaTask(mag, factor.mag)));
 	}
 
 	public BigInteger quadMultiply(BigInteger factor) {
-		BigInteger product = BigInteger.ZERO;
-		for (int i = 0; i < nbits; i++) {
-			if (bits.get(i)) {
-				product = product.add(factor);
+		if (nbits == 0 || factor.nbits == 0) {
+			return BigInteger.ZERO;
+		}
+		Metrics.record(Operation.QUAD_MULTIPLY, Math.max(nbits, factor.nbits));
+		if (factor == this) {
+			return new BigInteger(quadSquare(mag));
+		}
+		return new BigInteger(quadMultiply(mag, factor.mag));
+	}
+
+	private static int[] quadSquare(int[] a) {
+		int[] square = new int[2 * a.length];
+		quadSquare(a, a.length, square);
+		return square;
+	}
+
+	// writes the square of a[0..n) into the zeroed limbs square[0..2n)
+	static void quadSquare(int[] a, int n, int[] square) {
+		// each cross product a[i] * a[j] with i != j appears twice in the
+		// square, so the cross products are summed once and doubled, and the
+		// diagonal a[i]^2 terms are added afterwards
+		if (n == 0) {
+			return;
+		}
+		for (int i = 0; i < n; i++) {
+			long carry = 0, ai = a[i] & LONG_MASK;
+			for (int j = i + 1; j < n; j++) {
+				carry += ai * (a[j] & LONG_MASK) + (square[i + j] & LONG_MASK);
+				square[i + j] = (int) carry;
+				carry >>>= 32;
+			}
+			square[i + n] = (int) carry;
+		}
+		for (int i = 2 * n - 1; i > 0; i--) {
+			square[i] = (square[i] << 1) | (square[i - 1] >>> 31);
+		}
+		square[0] <<= 1;
+		long carry = 0;
+		for (int i = 0; i < n; i++) {
+			long d = (a[i] & LONG_MASK) * (a[i] & LONG_MASK);
+			carry += (square[2 * i] & LONG_MASK) + (d & LONG_MASK);
+			square[2 * i] = (int) carry;
+			carry = (carry >>> 32) + (square[2 * i + 1] & LONG_MASK)
+					+ (d >>> 32);
+			square[2 * i + 1] = (int) carry;
+			carry >>>= 32;
+		}
+	}
+
+	private static int[] quadMultiply(int[] a, int[] b) {
+		int[] product = new int[a.length + b.length];
+		for (int i = 0; i < a.length; i++) {
+			long carry = 0, ai = a[i] & LONG_MASK;
+			for (int j = 0; j < b.length; j++) {
+				carry += ai * (b[j] & LONG_MASK) + (product[i + j] & LONG_MASK);
+				product[i + j] = (int) carry;
+				carry >>>= 32;
 			}
-			factor = factor.add(factor);
+			product[i + b.length] = (int) carry;
 		}
 		return product;
 	}
 
+	// a random odd n-bit number to start a prime search from
+	private static BigInteger primeSearchStart(int n, Random gen) {
+		if (n < 2) {
+			throw new ArithmeticException("no primes with fewer than 2 bits");
+		}
+		BigInteger x = BigInteger.random(n - 1, gen).add(
+				BigInteger.ONE.leftShift(n - 1));
+		return x.testBit(0) ? x : x.add(BigInteger.ONE);
+	}
+
+	// the sieve of the window x, x + 2, ..., x + 2 * (primeSearchWindowSize(n)
+	// - 1): composite[j] is set when x + 2j has a small prime factor
+	private static boolean[] primeSearchSieve(BigInteger x, int n) {
+		// the candidates are sieved by all odd primes below 2^15, so
+		// miller-rabin only runs on the roughly 1 in 10 candidates which
+		// survive. numbers of 16 bits or fewer could be one of those primes,
+		// so they are not sieved.
+		int window = primeSearchWindowSize(n);
+		boolean[] composite = new boolean[window];
+		for (int i = 1; i < SMALL_PRIMES.length && n > 16; i++) {
+			int p = SMALL_PRIMES[i];
+			// x + 2j = 0 mod p, i.e. j = -x * 2^-1 mod p
+			long j = (long) (p - x.remainder(p)) * ((p + 1) / 2) % p;
+			for (; j < window; j += p) {
+				composite[(int) j] = true;
+			}
+		}
+		return composite;
+	}
+
+	// returns the first prime among the odd n-bit numbers in the window
+	// starting at x, or null if there is none
+	private static BigInteger primeSearchWindow(BigInteger x, int n,
+			float prob) {
+		boolean[] composite = primeSearchSieve(x, n);
+		for (int j = 0; j < composite.length; j++) {
+			if (composite[j]) {
+				continue;
+			}
+			BigInteger candidate = x.add(valueOf(2L * j));
+			if (candidate.nbits > n) {
+				return null;
+			}
+			Metrics.recordPrimeCandidate();
+			if (candidate.prime(prob, n > 16)) {
+				return candidate;
+			}
+		}
+		return null;
+	}
+
+	private static int primeSearchWindowSize(int n) {
+		return Math.max(64, 2 * n);
+	}
+
 	public static BigInteger random(int n, Random gen) {
 		if (gen == null) {
 			gen = RANDOM;
 		}
-		BitSet bits = new BitSet(n);
-		for (int i = 0; i < n; i++) {
-			bits.set(i, gen.nextBoolean());
+		int[] mag = new int[(n + 31) >>> 5];
+		for (int i = 0; i < mag.length; i++) {
+			mag[i] = gen.nextInt();
+		}
+		if ((n & 31) != 0) {
+			mag[mag.length - 1] &= (1 << (n & 31)) - 1;
 		}
-		return new BigInteger(bits);
+		return new BigInteger(mag);
+	}
+
+	// returns this mod d, for 0 < d < 2^31
+	int remainder(int d) {
+		long r = 0;
+		for (int i = mag.length - 1; i >= 0; i--) {
+			r = ((r << 32) | (mag[i] & LONG_MASK)) % d;
+		}
+		return (int) r;
 	}
 
 	public BigInteger rightShift(int n) {
 		if (n >= nbits) {
 			return BigInteger.ZERO;
 		}
-		return new BigInteger(bits.get(n, nbits));
+		int words = n >>> 5, shift = n & 31;
+		int[] mag = new int[this.mag.length - words];
+		for (int i = 0; i < mag.length; i++) {
+			mag[i] = this.mag[i + words] >>> shift;
+			if (shift != 0 && i + words + 1 < this.mag.length) {
+				mag[i] |= this.mag[i + words + 1] << (32 - shift);
+			}
+		}
+		return new BigInteger(mag);
+	}
+
+	private static int[] smallPrimes(int limit) {
+		// sieve of eratosthenes
+		boolean[] composite = new boolean[limit];
+		int count = 0;
+		for (int i = 2; i < limit; i++) {
+			if (!composite[i]) {
+				count++;
+				for (long j = (long) i * i; j < limit; j += i) {
+					composite[(int) j] = true;
+				}
+			}
+		}
+		int[] primes = new int[count];
+		for (int i = 2, j = 0; i < limit; i++) {
+			if (!composite[i]) {
+				primes[j++] = i;
+			}
+		}
+		return primes;
+	}
+
+	private static BigInteger[] smallValues(int n) {
+		BigInteger[] values = new BigInteger[n];
+		for (int i = 0; i < n; i++) {
+			values[i] = new BigInteger(new int[] { i });
+		}
+		return values;
+	}
+
+	public BigInteger square() {
+		if (nbits == 0) {
+			return BigInteger.ZERO;
+		}
+		return new BigInteger(square(mag));
+	}
+
+	// the squaring counterpart of multiply(int[], int[])
+	static int[] square(int[] a) {
+		if (a.length < karatsubaThreshold) {
+			Metrics.record(Operation.QUAD_MULTIPLY, 32 * a.length);
+			return quadSquare(a);
+		}
+		if (a.length >= nttThreshold
+				&& 4 * a.length <= NumberTheoreticTransform.MAX_LENGTH) {
+			Metrics.record(Operation.NTT_MULTIPLY, 32 * a.length);
+			return NumberTheoreticTransform.multiply(a, a);
+		}
+		Metrics.record(a.length < toomCookThreshold
+				? Operation.KARATSUBA_MULTIPLY : Operation.TOOM_COOK_3_MULTIPLY,
+				32 * a.length);
+		return toomCook3Square(a);
+	}
+
+	public static void setKaratsubaThreshold(int limbs) {
+		if (limbs < 2) {
+			throw new IllegalArgumentException(
+					"karatsuba threshold must be at least 2 limbs");
+		}
+		karatsubaThreshold = limbs;
+	}
+
+	public static void setNttThreshold(int limbs) {
+		if (limbs < 1) {
+			throw new IllegalArgumentException(
+					"ntt threshold must be at least 1 limb");
+		}
+		nttThreshold = limbs;
+	}
+
+	public static void setParallelThreshold(int limbs) {
+		if (limbs < 2) {
+			throw new IllegalArgumentException(
+					"parallel threshold must be at least 2 limbs");
+		}
+		parallelThreshold = limbs;
+	}
+
+	public static void setToomCookThreshold(int limbs) {
+		if (limbs < 3) {
+			throw new IllegalArgumentException(
+					"toom-cook threshold must be at least 3 limbs");
+		}
+		toomCookThreshold = limbs;
+	}
+
+	private static int[] stripLeadingZeros(int[] mag) {
+		int len = mag.length;
+		while (len > 0 && mag[len - 1] == 0) {
+			len--;
+		}
+		return len == mag.length ? mag : Arrays.copyOf(mag, len);
 	}
 
 	public BigInteger subtract(BigInteger term) {
 		if (compareTo(term) < 0) {
 			throw new ArithmeticException("subtraction yields negative number");
 		}
-		BigInteger difference = (BigInteger) term.clone();
-		difference.bits.flip(0, difference.nbits = nbits);
-		difference = difference.add(BigInteger.ONE, true).add(this, true);
-		difference.bits = difference.bits.get(0,
-				difference.nbits = difference.bits.length());
+		if (nbits <= 63) {
+			return valueOf(longValue() - term.longValue());
+		}
+		int[] difference = new int[mag.length];
+		long borrow = 0;
+		int i = 0;
+		for (; i < term.mag.length; i++) {
+			borrow += (mag[i] & LONG_MASK) - (term.mag[i] & LONG_MASK);
+			difference[i] = (int) borrow;
+			borrow >>= 32;
+		}
+		for (; i < mag.length; i++) {
+			borrow += mag[i] & LONG_MASK;
+			difference[i] = (int) borrow;
+			borrow >>= 32;
+		}
+		return new BigInteger(difference);
+	}
+
+	// returns a - b for a >= b, ignoring any leading zero limbs of b
+	private static int[] subtract(int[] a, int[] b) {
+		int[] difference = new int[a.length];
+		long borrow = 0;
+		for (int i = 0; i < a.length; i++) {
+			borrow += (a[i] & LONG_MASK)
+					- (i < b.length ? b[i] & LONG_MASK : 0);
+			difference[i] = (int) borrow;
+			borrow >>= 32;
+		}
 		return difference;
 	}
 
-	private Complex[] toComplexArray() {
-		Complex[] coefficients = new Complex[(nbits + 3) / 4];
-		for (int i = 0; i < coefficients.length; i++) {
-			int c = 0;
-			for (int j = 3; j >= 0; j--) {
-				c <<= 1;
-				if (bits.get(i * 4 + j)) {
-					c |= 1;
-				}
+	boolean testBit(int n) {
+		return (n >>> 5) < mag.length && (mag[n >>> 5] >>> (n & 31) & 1) == 1;
+	}
+
+	// the unsigned big-endian bytes of this, without leading zero bytes (so
+	// zero gives an empty array)
+	public byte[] toByteArray() {
+		byte[] b = new byte[(nbits + 7) / 8];
+		toByteArray(b, 0, b.length);
+		return b;
+	}
+
+	public byte[] toByteArray(ByteOrder order) {
+		byte[] b = toByteArray();
+		if (order == ByteOrder.LITTLE_ENDIAN) {
+			for (int i = 0, j = b.length - 1; i < j; i++, j--) {
+				byte t = b[i];
+				b[i] = b[j];
+				b[j] = t;
 			}
-			coefficients[i] = new Complex(c, 0);
 		}
-		return coefficients;
+		return b;
+	}
+
+	// writes this into b[off..off + len) as a big-endian number, zero padded
+	// on the left
+	void toByteArray(byte[] b, int off, int len) {
+		toByteBuffer(ByteBuffer.wrap(b), off, len);
+	}
+
+	// writes this into the len bytes of b from index on, like toByteArray,
+	// without moving the position of b
+	void toByteBuffer(ByteBuffer b, int index, int len) {
+		if (nbits > 8 * len) {
+			throw new ArithmeticException("number does not fit in " + len
+					+ " bytes");
+		}
+		for (int i = 0; i < len; i++) {
+			int limb = i >>> 2 < mag.length ? mag[i >>> 2] : 0;
+			b.put(index + len - 1 - i, (byte) (limb >>> ((i & 3) * 8)));
+		}
+	}
+
+	// returns the 4 bit digits of this, zero padded to length
+	private double[] toDigitArray(int length) {
+		double[] digits = new double[length];
+		for (int i = 0; i < (nbits + 3) / 4; i++) {
+			digits[i] = mag[i >>> 3] >>> ((i & 7) * 4) & 0xf;
+		}
+		return digits;
+	}
+
+	private static int[] toIntArray(long[] words) {
+		int[] mag = new int[words.length * 2];
+		for (int i = 0; i < words.length; i++) {
+			mag[2 * i] = (int) words[i];
+			mag[2 * i + 1] = (int) (words[i] >>> 32);
+		}
+		return mag;
 	}
 
 	public String toString() {
-		if (equals(BigInteger.ZERO)) {
+		if (nbits == 0) {
 			return "0";
 		}
-		StringBuilder hexBuilder = new StringBuilder((nbits + 3) / 4);
-		for (int i = 0; i < nbits; i += 4) {
-			int h = 0;
-			for (int j = 3; j >= 0; j--) {
-				h <<= 1;
-				h |= bits.get(i + j) ? 1 : 0;
+		StringBuilder hexBuilder = new StringBuilder(mag.length * 8);
+		hexBuilder.append(Integer.toHexString(mag[mag.length - 1]));
+		for (int i = mag.length - 2; i >= 0; i--) {
+			String h = Integer.toHexString(mag[i]);
+			for (int j = h.length(); j < 8; j++) {
+				hexBuilder.append('0');
 			}
-			hexBuilder.append(Integer.toHexString(h));
+			hexBuilder.append(h);
 		}
-		hexBuilder.reverse();
 		return hexBuilder.toString();
 	}
 
+	public String toString(int radix) {
+		return radix == 16 ? toString() : RadixConversion.toString(this, radix);
+	}
+
+	public BigInteger toomCook3Multiply(BigInteger factor) {
+		if (nbits == 0 || factor.nbits == 0) {
+			return BigInteger.ZERO;
+		}
+		Metrics.record(Operation.TOOM_COOK_3_MULTIPLY,
+				Math.max(nbits, factor.nbits));
+		return new BigInteger(toomCook3(mag, factor.mag));
+	}
+
+	public BigInteger toomCook3Square() {
+		if (nbits == 0) {
+			return BigInteger.ZERO;
+		}
+		Metrics.record(Operation.TOOM_COOK_3_MULTIPLY, nbits);
+		return new BigInteger(toomCook3Square(mag));
+	}
+
+	private static int[] toomCook3(int[] a, int[] b) {
+		return toomCook3(a, b, karatsubaThreshold, toomCookThreshold);
+	}
+
+	// toom-cook 3 with its own thresholds, like karatsuba(a, b, threshold)
+	static int[] toomCook3(int[] a, int[] b, int karatsubaLimbs,
+			int toomCookLimbs) {
+		// toom-cook 3-way multiplication, evaluating at 0, 1, -1, 2 and
+		// infinity with bodrato's interpolation sequence. the evaluated and
+		// interpolated values may be negative, so they are kept as w-limb
+		// two's complement numbers, which is wide enough for every
+		// intermediate.
+		a = stripLeadingZeros(a);
+		b = stripLeadingZeros(b);
+		if (a.length < b.length) {
+			int[] t = a;
+			a = b;
+			b = t;
+		}
+		if (b.length < toomCookLimbs) {
+			return karatsuba(a, b, karatsubaLimbs);
+		}
+		int k = (a.length + 2) / 3;
+		if (b.length <= k) {
+			int[] product = new int[a.length + b.length];
+			for (int i = 0; i < a.length; i += b.length) {
+				int[] slice = Arrays.copyOfRange(a, i,
+						Math.min(i + b.length, a.length));
+				addInto(product, toomCook3(slice, b, karatsubaLimbs,
+						toomCookLimbs), i);
+			}
+			return product;
+		}
+		int w = 2 * k + 2;
+		int[] a0 = toomSlice(a, 0, k, w), a1 = toomSlice(a, k, 2 * k, w);
+		int[] a2 = toomSlice(a, 2 * k, a.length, w);
+		int[] b0 = toomSlice(b, 0, k, w), b1 = toomSlice(b, k, 2 * k, w);
+		int[] b2 = toomSlice(b, 2 * k, b.length, w);
+		int kl = karatsubaLimbs, tl = toomCookLimbs;
+		int[] v0 = toomMultiply(a0, b0, kl, tl);
+		int[] da1 = toomAdd(a2, a0), db1 = toomAdd(b2, b0);
+		int[] vm1 = toomMultiply(toomSubtract(da1, a1), toomSubtract(db1, b1),
+				kl, tl);
+		da1 = toomAdd(da1, a1);
+		db1 = toomAdd(db1, b1);
+		int[] v1 = toomMultiply(da1, db1, kl, tl);
+		int[] v2 = toomMultiply(
+				toomSubtract(toomShiftLeft(toomAdd(da1, a2)), a0),
+				toomSubtract(toomShiftLeft(toomAdd(db1, b2)), b0), kl, tl);
+		int[] vinf = toomMultiply(a2, b2, kl, tl);
+		return toomInterpolate(v0, v1, vm1, v2, vinf, k, a.length + b.length);
+	}
+
+	private static int[] toomCook3Square(int[] a) {
+		a = stripLeadingZeros(a);
+		if (a.length < toomCookThreshold) {
+			return karatsubaSquare(a);
+		}
+		int k = (a.length + 2) / 3;
+		int w = 2 * k + 2;
+		int[] a0 = toomSlice(a, 0, k, w), a1 = toomSlice(a, k, 2 * k, w);
+		int[] a2 = toomSlice(a, 2 * k, a.length, w);
+		int[] v0 = toomSquare(a0);
+		int[] da1 = toomAdd(a2, a0);
+		int[] vm1 = toomSquare(toomSubtract(da1, a1));
+		da1 = toomAdd(da1, a1);
+		int[] v1 = toomSquare(da1);
+		int[] v2 = toomSquare(toomSubtract(toomShiftLeft(toomAdd(da1, a2)), a0));
+		int[] vinf = toomSquare(a2);
+		return toomInterpolate(v0, v1, vm1, v2, vinf, k, 2 * a.length);
+	}
+
+	private static int[] toomAdd(int[] x, int[] y) {
+		int[] sum = new int[x.length];
+		long carry = 0;
+		for (int i = 0; i < x.length; i++) {
+			carry += (x[i] & LONG_MASK) + (y[i] & LONG_MASK);
+			sum[i] = (int) carry;
+			carry >>>= 32;
+		}
+		return sum;
+	}
+
+	// divides x by three, where x is known to be a multiple of three, by
+	// multiplying with the inverse of three mod 2^32 one limb at a time
+	private static int[] toomDivideExact3(int[] x) {
+		int[] q = new int[x.length];
+		long borrow = 0;
+		for (int i = 0; i < x.length; i++) {
+			long xi = (x[i] & LONG_MASK) - borrow;
+			q[i] = (int) xi * 0xaaaaaaab;
+			borrow = ((q[i] & LONG_MASK) * 3 - xi) >> 32;
+		}
+		return q;
+	}
+
+	private static int[] toomInterpolate(int[] v0, int[] v1, int[] vm1,
+			int[] v2, int[] vinf, int k, int len) {
+		int[] t2 = toomDivideExact3(toomSubtract(v2, vm1));
+		int[] tm1 = toomShiftRight(toomSubtract(v1, vm1));
+		int[] t1 = toomSubtract(v1, v0);
+		t2 = toomShiftRight(toomSubtract(t2, t1));
+		t1 = toomSubtract(toomSubtract(t1, tm1), vinf);
+		t2 = toomSubtract(t2, toomShiftLeft(vinf));
+		tm1 = toomSubtract(tm1, t2);
+		// every coefficient of the product polynomial is non-negative, so
+		// the two's complement values can be added in directly
+		int[] product = new int[len];
+		addInto(product, v0, 0);
+		addInto(product, tm1, k);
+		addInto(product, t1, 2 * k);
+		addInto(product, t2, 3 * k);
+		addInto(product, vinf, 4 * k);
+		return product;
+	}
+
+	private static int[] toomMultiply(int[] x, int[] y, int karatsubaLimbs,
+			int toomCookLimbs) {
+		boolean negative = (x[x.length - 1] ^ y[y.length - 1]) < 0;
+		int[] product = toomCook3(toomNegate(x, x[x.length - 1] < 0),
+				toomNegate(y, y[y.length - 1] < 0), karatsubaLimbs,
+				toomCookLimbs);
+		return toomNegate(Arrays.copyOf(product, x.length), negative);
+	}
+
+	private static int[] toomNegate(int[] x, boolean negate) {
+		if (!negate) {
+			return x;
+		}
+		int[] negation = new int[x.length];
+		long carry = 1;
+		for (int i = 0; i < x.length; i++) {
+			carry += ~x[i] & LONG_MASK;
+			negation[i] = (int) carry;
+			carry >>>= 32;
+		}
+		return negation;
+	}
+
+	private static int[] toomShiftLeft(int[] x) {
+		int[] shifted = new int[x.length];
+		for (int i = x.length - 1; i > 0; i--) {
+			shifted[i] = (x[i] << 1) | (x[i - 1] >>> 31);
+		}
+		shifted[0] = x[0] << 1;
+		return shifted;
+	}
+
+	private static int[] toomShiftRight(int[] x) {
+		int[] shifted = new int[x.length];
+		for (int i = 0; i < x.length - 1; i++) {
+			shifted[i] = (x[i] >>> 1) | (x[i + 1] << 31);
+		}
+		shifted[x.length - 1] = x[x.length - 1] >> 1;
+		return shifted;
+	}
+
+	// returns limbs [from, to) of a, zero extended to w limbs
+	private static int[] toomSlice(int[] a, int from, int to, int w) {
+		int[] slice = new int[w];
+		if (from < a.length) {
+			System.arraycopy(a, from, slice, 0, Math.min(to, a.length) - from);
+		}
+		return slice;
+	}
+
+	private static int[] toomSquare(int[] x) {
+		int[] square = toomCook3Square(toomNegate(x, x[x.length - 1] < 0));
+		return Arrays.copyOf(square, x.length);
+	}
+
+	private static int[] toomSubtract(int[] x, int[] y) {
+		int[] difference = new int[x.length];
+		long borrow = 0;
+		for (int i = 0; i < x.length; i++) {
+			borrow += (x[i] & LONG_MASK) - (y[i] & LONG_MASK);
+			difference[i] = (int) borrow;
+			borrow >>= 32;
+		}
+		return difference;
+	}
+
+	// parses a non-negative number in the given radix, from 2 to 36
+	public static BigInteger valueOf(String s, int radix) {
+		return RadixConversion.parse(s, radix);
+	}
+
+	// returns value, which must be non-negative, as a BigInteger. values
+	// below 1024 come from a cache.
+	public static BigInteger valueOf(long value) {
+		if (value < 0) {
+			throw new ArithmeticException("negative value");
+		}
+		if (value < SMALL_VALUES.length) {
+			return SMALL_VALUES[(int) value];
+		}
+		return new BigInteger(new int[] { (int) value, (int) (value >>> 32) });
+	}
+
+	// the steps of left-to-right sliding window exponentiation of a non-zero
+	// exp with windows of up to k bits. each window runs from a set bit down
+	// to the lowest set bit within k bits of it, so that its value 2w + 1 is
+	// odd and is the power at index w of the table. the first window sets the
+	// running value rather than multiplying it, and the squarings before it
+	// are left out.
+	static void windowScan(BigInteger exp, int k, WindowSteps steps) {
+		boolean started = false;
+		for (int i = exp.nbits - 1; i >= 0;) {
+			if (!exp.testBit(i)) {
+				steps.square();
+				i--;
+				continue;
+			}
+			int l = Math.max(i - k + 1, 0);
+			while (!exp.testBit(l)) {
+				l++;
+			}
+			int w = 0;
+			for (int j = i; j >= l; j--) {
+				w = (w << 1) | (exp.testBit(j) ? 1 : 0);
+				if (started) {
+					steps.square();
+				}
+			}
+			if (started) {
+				steps.multiply(w >>> 1);
+			} else {
+				steps.start(w >>> 1);
+				started = true;
+			}
+			i = l - 1;
+		}
+	}
+
+	// window size for sliding window exponentiation: the table of 2^(k-1) odd
+	// powers only pays for itself once the exponent is long enough
+	static int windowSize(int expBits) {
+		int[] thresholds = { 24, 80, 240, 672, 1792 };
+		int k = 1;
+		while (k <= thresholds.length && expBits > thresholds[k - 1]) {
+			k++;
+		}
+		return k;
+	}
+
+	// writes the limb count and then the limbs in bulk, so that readFrom only
+	// has to copy them back
+	public void writeTo(ByteBuffer b) {
+		if (b.remaining() < writtenLength()) {
+			throw new BufferOverflowException();
+		}
+		b.putInt(mag.length);
+		b.asIntBuffer().put(mag);
+		b.position(b.position() + 4 * mag.length);
+	}
+
+	// the number of bytes writeTo takes for this
+	int writtenLength() {
+		return 4 * (mag.length + 1);
+	}
+
 	public static void main(String[] args) throws IOException {
 		String theAnswerToLifeTheUniverseAndEverything = "42";
 		BigInteger N = new BigInteger("0x131d50c588d428939c8ddec0212e450d");
 		BigInteger e = new BigInteger("0xb");
 		BigInteger d = new BigInteger("0x6f363308ed8c8efa77fd78cbe51c573"); // lol
-		String encryptString = BigInteger.encryptString(
-				theAnswerToLifeTheUniverseAndEverything, N, e);
-		BufferedWriter bw = new BufferedWriter(new FileWriter("bonus.msg"));
-		bw.write(encryptString);
-		bw.close();
-		BufferedReader br = new BufferedReader(new FileReader("bonus.msg"));
-		System.out.println(BigInteger.decryptString(br.readLine(), N, d));
-		br.close();
+		// the cipher text is binary, so it goes through streams rather than
+		// readers and writers
+		OutputStream out = new FileOutputStream("bonus.msg");
+		try {
+			BigInteger.encryptStream(new ByteArrayInputStream(
+					theAnswerToLifeTheUniverseAndEverything.getBytes()), out, N,
+					e);
+		} finally {
+			out.close();
+		}
+		ByteArrayOutputStream message = new ByteArrayOutputStream();
+		InputStream in = new FileInputStream("bonus.msg");
+		try {
+			BigInteger.decryptStream(in, message, N, d);
+		} finally {
+			in.close();
+		}
+		System.out.println(message.toString());
+	}
+
+	private static final class KaratsubaTask extends RecursiveTask<int[]> {
+
+		private static final long serialVersionUID = 1L;
+		private final int[] a, b;
+
+		KaratsubaTask(int[] a, int[] b) {
+			this.a = a;
+			this.b = b;
+		}
+
+		@Override
+		protected int[] compute() {
+			int[] a = stripLeadingZeros(this.a), b = stripLeadingZeros(this.b);
+			if (a.length < b.length) {
+				int[] t = a;
+				a = b;
+				b = t;
+			}
+			if (b.length < Math.max(karatsubaThreshold, parallelThreshold)) {
+				return karatsuba(a, b);
+			}
+			int half = (a.length + 1) / 2;
+			int[] product = new int[a.length + b.length];
+			if (b.length <= half) {
+				KaratsubaTask[] slices = new KaratsubaTask[(a.length
+						+ b.length - 1)
+						/ b.length];
+				for (int i = 0; i < slices.length; i++) {
+					slices[i] = new KaratsubaTask(Arrays.copyOfRange(a, i
+							* b.length, Math.min((i + 1) * b.length,
+							a.length)), b);
+				}
+				ForkJoinTask.invokeAll(slices);
+				for (int i = 0; i < slices.length; i++) {
+					addInto(product, slices[i].join(), i * b.length);
+				}
+				return product;
+			}
+			int[] aR = Arrays.copyOf(a, half), aL = Arrays.copyOfRange(a, half,
+					a.length);
+			int[] bR = Arrays.copyOf(b, half), bL = Arrays.copyOfRange(b, half,
+					b.length);
+			KaratsubaTask P1 = new KaratsubaTask(aL, bL);
+			KaratsubaTask P2 = new KaratsubaTask(aR, bR);
+			KaratsubaTask P3 = new KaratsubaTask(add(aL, aR), add(bL, bR));
+			ForkJoinTask.invokeAll(P1, P2, P3);
+			addInto(product, P2.join(), 0);
+			addInto(product, subtract(subtract(P3.join(), P1.join()), P2.join()),
+					half);
+			addInto(product, P1.join(), 2 * half);
+			return product;
+		}
+	}
+
+	// a parallel prime search through the same windows as newPrime. the
+	// candidates of each window are claimed in increasing order by tasks on
+	// the executor, and a task which finds a prime lowers best, the lowest
+	// index of a prime found so far. every task stops once its next claim is
+	// at or above best, so the search settles on the first prime of the
+	// window, as newPrime does, however the tasks are scheduled.
+	private static final class PrimeSearch {
+
+		private final int n;
+		private final float prob;
+		private final ExecutorService executor;
+		private final Random gen;
+		private final int tasks = Runtime.getRuntime().availableProcessors();
+
+		PrimeSearch(int n, float prob, ExecutorService executor, Random gen) {
+			this.n = n;
+			this.prob = prob;
+			this.executor = executor;
+			this.gen = gen;
+		}
+
+		BigInteger find() {
+			BigInteger x = primeSearchStart(n, gen);
+			while (true) {
+				BigInteger p = searchWindow(x);
+				if (p != null) {
+					return p;
+				}
+				x = x.add(valueOf(2L * primeSearchWindowSize(n)));
+				if (x.nbits > n) {
+					x = primeSearchStart(n, gen);
+				}
+			}
+		}
+
+		// lowers best to j, unless another task has already found a prime
+		// below it
+		private static void lower(AtomicInteger best, int j) {
+			int b = best.get();
+			while (b > j && !best.compareAndSet(b, j)) {
+				b = best.get();
+			}
+		}
+
+		// tests the unsieved candidates claimed from next, until one is
+		// prime or a claim reaches best
+		private static void search(BigInteger x, int n, float prob,
+				boolean[] composite, AtomicInteger next, AtomicInteger best) {
+			for (int j = next.getAndIncrement(); j < best.get(); j = next
+					.getAndIncrement()) {
+				if (composite[j]) {
+					continue;
+				}
+				BigInteger candidate = x.add(valueOf(2L * j));
+				if (candidate.nbits > n) {
+					// so is every later claim
+					break;
+				}
+				Metrics.recordPrimeCandidate();
+				if (candidate.prime(prob, n > 16)) {
+					lower(best, j);
+					break;
+				}
+			}
+		}
+
+		// returns the first prime in the window starting at x, or null
+		private BigInteger searchWindow(final BigInteger x) {
+			final boolean[] composite = primeSearchSieve(x, n);
+			final AtomicInteger next = new AtomicInteger();
+			final AtomicInteger best = new AtomicInteger(composite.length);
+			List<Future<?>> pending = new ArrayList<Future<?>>();
+			for (int i = 0; i < tasks; i++) {
+				pending.add(executor.submit(new Runnable() {
+					public void run() {
+						search(x, n, prob, composite, next, best);
+					}
+				}));
+			}
+			try {
+				for (Future<?> f : pending) {
+					f.get();
+				}
+			} catch (InterruptedException e) {
+				// a best of 0 stops every task at its next claim
+				best.set(0);
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("prime search interrupted", e);
+			} catch (ExecutionException e) {
+				best.set(0);
+				throw new RuntimeException("prime search failed", e.getCause());
+			}
+			int j = best.get();
+			return j < composite.length ? x.add(valueOf(2L * j)) : null;
+		}
+	}
+
+	// the running value operations of windowScan
+	interface WindowSteps {
+		void multiply(int index);
+
+		void square();
+
+		void start(int index);
 	}
 }
@@ -2,7 +2,33 @@ package numutils;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 
 import org.junit.Test;
 
@@ -113,6 +139,20 @@ public class BigIntegerTest {
 		assertEquals(compare1[1].toString(16), result1[1].toString());
 		assertEquals(compare2[0].toString(16), result2[0].toString());
 		assertEquals(compare2[1].toString(16), result2[1].toString());
+		//brute force
+		for (int i = 0; i < 100; i++) {
+			BigInteger b1 = BigInteger.random(2048, null);
+			BigInteger b2 = BigInteger.random(32 + 16 * i, null);
+			if (b2.equals(new BigInteger("0"))) {
+				continue;
+			}
+			r1 = new java.math.BigInteger(b1.toString(), 16);
+			r2 = new java.math.BigInteger(b2.toString(), 16);
+			BigInteger[] result = b1.quadDivision(b2);
+			java.math.BigInteger[] compare = r1.divideAndRemainder(r2);
+			assertEquals(compare[0].toString(16), result[0].toString());
+			assertEquals(compare[1].toString(16), result[1].toString());
+		}
 	}
 	
 	@Test
@@ -171,6 +211,82 @@ public class BigIntegerTest {
 		assertEquals(r1.modPow(r3, r2).toString(16), test1.modExp(test3, test2).toString());
 		assertEquals(r3.modPow(r2, r1).toString(16), test3.modExp(test2, test1).toString());
 		assertEquals(r4.modPow(new java.math.BigInteger("2"), r2).toString(16), test4.modExp(new BigInteger("2"), test2).toString());
+		//brute force, odd moduli take the montgomery path
+		for (int i = 0; i < 20; i++) {
+			BigInteger b1 = BigInteger.random(1024, null);
+			BigInteger b2 = BigInteger.random(1024, null);
+			BigInteger b3 = BigInteger.random(1024, null).leftShift(1).add(new BigInteger("1"));
+			r1 = new java.math.BigInteger(b1.toString(), 16);
+			r2 = new java.math.BigInteger(b2.toString(), 16);
+			r3 = new java.math.BigInteger(b3.toString(), 16);
+			assertEquals(r1.modPow(r2, r3).toString(16), b1.modExp(b2, b3).toString());
+			//the context is reused while the modulus stays the same
+			assertSame(BigInteger.montgomeryContext(b3), BigInteger.montgomeryContext(b3));
+			assertEquals(r2.modPow(r1, r3).toString(16), b2.modExp(b1, b3).toString());
+		}
+		//and survives alternating with another modulus, as in crt with two keys
+		BigInteger m1 = BigInteger.random(512, null).leftShift(1).add(new BigInteger("1"));
+		BigInteger m2 = m1;
+		while ((m2.hashCode() & 15) == (m1.hashCode() & 15)) {
+			m2 = BigInteger.random(512, null).leftShift(1).add(new BigInteger("1"));
+		}
+		MontgomeryContext c1 = BigInteger.montgomeryContext(m1), c2 = BigInteger.montgomeryContext(m2);
+		for (int i = 0; i < 4; i++) {
+			assertSame(c1, BigInteger.montgomeryContext(m1));
+			assertSame(c2, BigInteger.montgomeryContext(m2));
+		}
+		//brute force, even moduli take the barrett path, against repeated
+		//multiplication for small exponents and right-to-left square and
+		//multiply for exponents long enough to use every window size
+		BigInteger b1 = BigInteger.random(512, null);
+		BigInteger b3 = BigInteger.random(512, null).add(new BigInteger("1")).leftShift(1);
+		r1 = new java.math.BigInteger(b1.toString(), 16);
+		r3 = new java.math.BigInteger(b3.toString(), 16);
+		java.math.BigInteger power = java.math.BigInteger.ONE;
+		for (int i = 0; i < 100; i++) {
+			assertEquals(power.toString(16), b1.modExp(BigInteger.valueOf(i), b3).toString());
+			power = power.multiply(r1).mod(r3);
+		}
+		for (int bits = 16; bits <= 4096; bits *= 2) {
+			BigInteger b2 = BigInteger.random(bits, null);
+			r2 = new java.math.BigInteger(b2.toString(), 16);
+			power = java.math.BigInteger.ONE;
+			java.math.BigInteger square = r1.mod(r3);
+			for (int j = 0; j < r2.bitLength(); j++) {
+				if (r2.testBit(j)) {
+					power = power.multiply(square).mod(r3);
+				}
+				square = square.multiply(square).mod(r3);
+			}
+			assertEquals(power.toString(16), b1.modExp(b2, b3).toString());
+		}
+	}
+
+	@Test
+	public void testMontgomeryContext() {
+		BigInteger b1, b2, b3;
+		java.math.BigInteger r1, r2, r3;
+		try {
+			new MontgomeryContext(new BigInteger("aab34eefb42"));
+			fail("Exception should have occured.");
+		} catch (ArithmeticException e) {
+			assertTrue(true);
+		}
+		//brute force
+		for (int i = 0; i < 100; i++) {
+			b1 = BigInteger.random(512, null);
+			b2 = BigInteger.random(512, null);
+			b3 = BigInteger.random(512, null).leftShift(1).add(new BigInteger("1"));
+			r1 = new java.math.BigInteger(b1.toString(), 16);
+			r2 = new java.math.BigInteger(b2.toString(), 16);
+			r3 = new java.math.BigInteger(b3.toString(), 16);
+			MontgomeryContext ctx = new MontgomeryContext(b3);
+			BigInteger m1 = ctx.toMontgomery(b1), m2 = ctx.toMontgomery(b2);
+			assertEquals(r1.mod(r3).toString(16), ctx.fromMontgomery(m1).toString());
+			assertEquals(r1.multiply(r2).mod(r3).toString(16), ctx.fromMontgomery(ctx.montMul(m1, m2)).toString());
+			assertEquals(r1.multiply(r1).mod(r3).toString(16), ctx.fromMontgomery(ctx.montSquare(m1)).toString());
+			assertEquals(r1.modPow(r2, r3).toString(16), ctx.modExp(b1, b2).toString());
+		}
 	}
 
 	@Test
@@ -253,6 +369,11 @@ public class BigIntegerTest {
 		assertFalse(t5.prime(prob));
 		assertFalse(t3.prime(prob));      //Carmichael number!
 		
+		//small numbers are settled exactly, without miller-rabin
+		for (int i = 0; i < 2000; i++) {
+			assertEquals(java.math.BigInteger.valueOf(i).isProbablePrime(50), new BigInteger(Integer.toHexString(i)).prime(prob));
+		}
+		
 	}
 	
 	@Test
@@ -263,6 +384,24 @@ public class BigIntegerTest {
 		assertTrue(BigInteger.newPrime(20, prob).prime(prob));
 		assertTrue(BigInteger.newPrime(10, prob).prime(prob));
 		
+		//the top bit is always set, and the result agrees with java.math
+		int[] bits = { 2, 3, 16, 17, 64, 256, 512 };
+		for (int i = 0; i < bits.length; i++) {
+			BigInteger p = BigInteger.newPrime(bits[i], prob);
+			assertEquals(bits[i], p.bitLength());
+			assertTrue(new java.math.BigInteger(p.toString(), 16).isProbablePrime(50));
+		}
+		
+		//sieved candidates below 2^30 skip miller-rabin, so these are exact
+		Random random = new Random(8);
+		for (int n = 17; n <= 32; n++) {
+			for (int i = 0; i < 20; i++) {
+				BigInteger p = BigInteger.newPrime(n, prob, random);
+				assertEquals(n, p.bitLength());
+				assertTrue(java.math.BigInteger.valueOf(p.longValue()).isProbablePrime(50));
+			}
+		}
+		
 	}
 	
 	@Test
@@ -335,6 +474,15 @@ public class BigIntegerTest {
 			r2 = new java.math.BigInteger(b2.toString(), 16);
 			assertEquals(b1.divConquerMultiply(b2).toString(), r1.multiply(r2).toString(16));
 		}
+		//operands above the karatsuba threshold, including unbalanced ones
+		for (int i = 0; i < 100; i++) {
+			b1 = BigInteger.random(4096, null);
+			b2 = BigInteger.random(64 * (i + 1), null);
+			r1 = new java.math.BigInteger(b1.toString(), 16);
+			r2 = new java.math.BigInteger(b2.toString(), 16);
+			assertEquals(r1.multiply(r2).toString(16), b1.divConquerMultiply(b2).toString());
+			assertEquals(r2.multiply(r1).toString(16), b2.divConquerMultiply(b1).toString());
+		}
 	}
 	
 	@Test
@@ -362,6 +510,795 @@ public class BigIntegerTest {
 			r2 = new java.math.BigInteger(b2.toString(), 16);
 			assertEquals(b1.fftMultiply(b2).toString(), r1.multiply(r2).toString(16));
 		}
+		//larger and unbalanced operands
+		for (int i = 0; i < 20; i++) {
+			b1 = BigInteger.random(16384, null);
+			b2 = BigInteger.random(1000 * (i + 1), null);
+			r1 = new java.math.BigInteger(b1.toString(), 16);
+			r2 = new java.math.BigInteger(b2.toString(), 16);
+			assertEquals(r1.multiply(r2).toString(16), b1.fftMultiply(b2).toString());
+		}
 	}
-	
+
+	@Test
+	public void testToomCook3Multiply() {
+		//special cases
+		BigInteger b1, b2;
+		java.math.BigInteger r1, r2;
+		b1 = new BigInteger("1");
+		for (int i = 0; i < 128; i++) {
+			String h = Integer.toHexString(i);
+			b2 = new BigInteger(h);
+			assertEquals(b1.toomCook3Multiply(b2).toString(), h);
+		}
+		b1 = new BigInteger("0");
+		for (int i = 0; i < 128; i++) {
+			String h = Integer.toHexString(i);
+			b2 = new BigInteger(h);
+			assertEquals(b1.toomCook3Multiply(b2).toString(), "0");
+		}
+		//brute force, above the toom-cook threshold and unbalanced
+		for (int i = 0; i < 20; i++) {
+			b1 = BigInteger.random(30000, null);
+			b2 = BigInteger.random(1500 * (i + 1), null);
+			r1 = new java.math.BigInteger(b1.toString(), 16);
+			r2 = new java.math.BigInteger(b2.toString(), 16);
+			assertEquals(r1.multiply(r2).toString(16), b1.toomCook3Multiply(b2).toString());
+		}
+	}
+
+	@Test
+	public void testToomCook3Square() {
+		BigInteger b1;
+		java.math.BigInteger r1;
+		assertEquals("0", new BigInteger("0").toomCook3Square().toString());
+		assertEquals("1", new BigInteger("1").toomCook3Square().toString());
+		//brute force
+		for (int i = 0; i < 20; i++) {
+			b1 = BigInteger.random(1500 * (i + 1), null);
+			r1 = new java.math.BigInteger(b1.toString(), 16);
+			assertEquals(r1.multiply(r1).toString(16), b1.toomCook3Square().toString());
+		}
+	}
+
+	@Test
+	public void testNttMultiply() {
+		//special cases
+		BigInteger b1, b2;
+		java.math.BigInteger r1, r2;
+		b1 = new BigInteger("1");
+		for (int i = 0; i < 128; i++) {
+			String h = Integer.toHexString(i);
+			b2 = new BigInteger(h);
+			assertEquals(b1.nttMultiply(b2).toString(), h);
+		}
+		b1 = new BigInteger("0");
+		for (int i = 0; i < 128; i++) {
+			String h = Integer.toHexString(i);
+			b2 = new BigInteger(h);
+			assertEquals(b1.nttMultiply(b2).toString(), "0");
+		}
+		//brute force
+		for (int i = 0; i < 100; i++) {
+			b1 = BigInteger.random(128, null);
+			b2 = BigInteger.random(128, null);
+			r1 = new java.math.BigInteger(b1.toString(), 16);
+			r2 = new java.math.BigInteger(b2.toString(), 16);
+			assertEquals(b1.nttMultiply(b2).toString(), r1.multiply(r2).toString(16));
+		}
+		//large operands, where the coefficients need all three primes
+		b1 = new BigInteger("1").leftShift(1 << 18).subtract(new BigInteger("1"));
+		r1 = new java.math.BigInteger(b1.toString(), 16);
+		assertEquals(r1.multiply(r1).toString(16), b1.nttMultiply(b1).toString());
+		b1 = BigInteger.random(1 << 18, null);
+		b2 = BigInteger.random(1 << 17, null);
+		r1 = new java.math.BigInteger(b1.toString(), 16);
+		r2 = new java.math.BigInteger(b2.toString(), 16);
+		assertEquals(r1.multiply(r2).toString(16), b1.nttMultiply(b2).toString());
+	}
+
+	@Test
+	public void testParallelMultiply() {
+		BigInteger b1, b2;
+		java.math.BigInteger r1, r2;
+		assertEquals("0", new BigInteger("0").parallelMultiply(new BigInteger("abc")).toString());
+		assertEquals("abc", new BigInteger("1").parallelMultiply(new BigInteger("abc")).toString());
+		//brute force, above the parallel threshold and unbalanced
+		for (int i = 0; i < 4; i++) {
+			b1 = BigInteger.random(200000, null);
+			b2 = BigInteger.random(50000 * (i + 1), null);
+			assertEquals(b1.divConquerMultiply(b2), b1.parallelMultiply(b2));
+			assertEquals(b1.fftMultiply(b2), b1.parallelFftMultiply(b2));
+		}
+		b1 = BigInteger.random(80000, null);
+		b2 = BigInteger.random(70000, null);
+		r1 = new java.math.BigInteger(b1.toString(), 16);
+		r2 = new java.math.BigInteger(b2.toString(), 16);
+		assertEquals(r1.multiply(r2).toString(16), b1.parallelMultiply(b2).toString());
+	}
+
+	@Test
+	public void testMultiply() {
+		//special cases
+		BigInteger b1, b2;
+		java.math.BigInteger r1, r2;
+		b1 = new BigInteger("1");
+		for (int i = 0; i < 128; i++) {
+			String h = Integer.toHexString(i);
+			b2 = new BigInteger(h);
+			assertEquals(b1.multiply(b2).toString(), h);
+		}
+		b1 = new BigInteger("0");
+		for (int i = 0; i < 128; i++) {
+			String h = Integer.toHexString(i);
+			b2 = new BigInteger(h);
+			assertEquals(b1.multiply(b2).toString(), "0");
+		}
+		//brute force, across all of the algorithm thresholds
+		int[] bits = { 64, 2048, 16384, 65536 };
+		for (int i = 0; i < bits.length; i++) {
+			for (int j = 0; j < bits.length; j++) {
+				b1 = BigInteger.random(bits[i], null);
+				b2 = BigInteger.random(bits[j], null);
+				r1 = new java.math.BigInteger(b1.toString(), 16);
+				r2 = new java.math.BigInteger(b2.toString(), 16);
+				assertEquals(r1.multiply(r2).toString(16), b1.multiply(b2).toString());
+			}
+		}
+	}
+
+	@Test
+	public void testSquare() {
+		//special cases
+		BigInteger b1;
+		java.math.BigInteger r1;
+		for (int i = 0; i < 128; i++) {
+			String h = Integer.toHexString(i);
+			b1 = new BigInteger(h);
+			assertEquals(Integer.toHexString(i * i), b1.square().toString());
+		}
+		//brute force, across the squaring algorithms
+		for (int i = 0; i < 20; i++) {
+			b1 = BigInteger.random(200 * (i + 1) * (i + 1), null);
+			r1 = new java.math.BigInteger(b1.toString(), 16);
+			assertEquals(r1.multiply(r1).toString(16), b1.square().toString());
+			assertEquals(b1.square(), b1.quadMultiply(b1));
+			assertEquals(b1.square(), b1.divConquerMultiply(b1));
+			assertEquals(b1.square(), b1.nttMultiply(b1));
+		}
+		for (int i = 0; i < 10; i++) {
+			b1 = BigInteger.random(1000 * (i + 1), null);
+			assertEquals(b1.square(), b1.fftMultiply(b1));
+		}
+	}
+
+	@Test
+	public void testModSquare() {
+		BigInteger b1, b2;
+		java.math.BigInteger r1, r2;
+		for (int i = 0; i < 100; i++) {
+			b1 = BigInteger.random(1024, null);
+			b2 = BigInteger.random(512, null).add(new BigInteger("1"));
+			r1 = new java.math.BigInteger(b1.toString(), 16);
+			r2 = new java.math.BigInteger(b2.toString(), 16);
+			assertEquals(r1.multiply(r1).mod(r2).toString(16), b1.modSquare(b2).toString());
+		}
+	}
+
+	@Test
+	public void testRSAKey() {
+		
+		RSAPrivateKey key = BigInteger.generateRSAKey(new BigInteger("7"), new BigInteger("b"));
+		assertEquals("4d", key.getN().toString());
+		assertEquals(Arrays.toString(BigInteger.generateRSA(new BigInteger("7"), new BigInteger("b"))), Arrays.toString(key.toArray()));
+		
+		key = BigInteger.generateRSAKey(64);
+		java.math.BigInteger p = new java.math.BigInteger(key.getP().toString(), 16);
+		java.math.BigInteger q = new java.math.BigInteger(key.getQ().toString(), 16);
+		java.math.BigInteger d = new java.math.BigInteger(key.getD().toString(), 16);
+		assertEquals(p.multiply(q).toString(16), key.getN().toString());
+		assertEquals(d.mod(p.subtract(java.math.BigInteger.ONE)).toString(16), key.getDP().toString());
+		assertEquals(d.mod(q.subtract(java.math.BigInteger.ONE)).toString(16), key.getDQ().toString());
+		assertEquals(q.modInverse(p).toString(16), key.getQInv().toString());
+		
+		for (int i = 0; i < 20; i++) {
+			BigInteger test1 = BigInteger.random(key.getN().bitLength() - 1, null);
+			BigInteger test2 = test1.encrypt(key.getN(), key.getE());
+			assertEquals(test1.toString(), test2.decrypt(key).toString());
+			assertEquals(test2.decrypt(key.getN(), key.getD()).toString(), test2.decrypt(key).toString());
+		}
+		
+		String tstr = "The quick brown fox jupmed over the lazy dog.";
+		String enc = BigInteger.encryptString(tstr, key.getN(), key.getE());
+		assertEquals(BigInteger.decryptString(enc, key.getN(), key.getD()), BigInteger.decryptString(enc, key));
+	}
+
+	@Test
+	public void testExtendedGcd() {
+		BigInteger b1, b2;
+		java.math.BigInteger r1, r2;
+		BigInteger[] e = new BigInteger("0").extendedGcd(new BigInteger("1c"));
+		assertEquals("1c", e[0].toString());
+		e = new BigInteger("1c").extendedGcd(new BigInteger("0"));
+		assertEquals("1c", e[0].toString());
+		assertEquals("1", e[1].toString());
+		//brute force, small operands take the binary path and large ones lehmer
+		for (int i = 0; i < 200; i++) {
+			b1 = BigInteger.random(1 + i * 7, null).add(new BigInteger("1"));
+			b2 = BigInteger.random(1 + (199 - i) * 7, null).add(new BigInteger("1"));
+			if (i % 3 == 0) {
+				b1 = b1.multiply(b2);
+			} else if (i % 3 == 1) {
+				BigInteger c = BigInteger.random(40 + i, null).add(new BigInteger("1"));
+				b1 = b1.multiply(c);
+				b2 = b2.multiply(c);
+			}
+			r1 = new java.math.BigInteger(b1.toString(), 16);
+			r2 = new java.math.BigInteger(b2.toString(), 16);
+			e = b1.extendedGcd(b2);
+			assertEquals(r1.gcd(r2).toString(16), e[0].toString());
+			assertEquals(r1.gcd(r2).toString(16), b1.gcd(b2).toString());
+			assertEquals(e[0], b1.multiply(e[1]).subtract(b2.multiply(e[2])));
+			assertTrue(e[1].compareTo(b2.quadDivision(e[0])[0]) <= 0);
+			if (e[0].equals(new BigInteger("1"))) {
+				assertEquals(r1.modInverse(r2).toString(16), b1.modInverse(b2).toString());
+			}
+		}
+	}
+
+	@Test
+	public void testParallelNewPrime() {
+		
+		float prob = (float)0.000001;
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			BigInteger p = BigInteger.parallelNewPrime(256, prob, executor, new Random(42));
+			assertEquals(256, p.bitLength());
+			assertTrue(new java.math.BigInteger(p.toString(), 16).isProbablePrime(50));
+			//the same seed gives the same prime, however the tasks are scheduled
+			assertEquals(p, BigInteger.parallelNewPrime(256, prob, executor, new Random(42)));
+			assertEquals(p, BigInteger.parallelNewPrime(256, prob, ForkJoinPool.commonPool(), new Random(42)));
+			//it searches the same windows as newPrime, and settles on the first prime of each
+			assertEquals(p, BigInteger.newPrime(256, prob, new Random(42)));
+			//with one thread the tasks run one after another, so once the first has found
+			//the prime the others stop without testing anything, and the candidates tested
+			//are just those of newPrime
+			ExecutorService single = Executors.newSingleThreadExecutor();
+			Metrics.setEnabled(true);
+			try {
+				Metrics.reset();
+				BigInteger.newPrime(1024, prob, new Random(3));
+				long serial = Metrics.snapshot().getPrimeCandidates();
+				Metrics.reset();
+				BigInteger.parallelNewPrime(1024, prob, single, new Random(3));
+				assertEquals(serial, Metrics.snapshot().getPrimeCandidates());
+			} finally {
+				Metrics.setEnabled(false);
+				Metrics.reset();
+				single.shutdownNow();
+			}
+			
+			RSAPrivateKey key = BigInteger.parallelGenerateRSAKey(128, executor, new Random(7));
+			assertEquals(key.getN(), BigInteger.parallelGenerateRSAKey(128, executor, new Random(7)).getN());
+			assertEquals(key.getN(), key.getP().multiply(key.getQ()));
+			BigInteger test1 = new BigInteger("2000");
+			assertEquals(test1, test1.encrypt(key.getN(), key.getE()).decrypt(key));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testBarrettReducer() {
+		
+		BarrettReducer reducer = new BarrettReducer(new BigInteger("64"));
+		assertEquals("5f", new BigInteger("c3").modAdd(new BigInteger("0"), reducer).toString());
+		assertEquals("15", new BigInteger("3").modExp(new BigInteger("10"), reducer).toString());
+		assertEquals("0", new BigInteger("5").modMultiply(new BigInteger("5"), new BarrettReducer(new BigInteger("1"))).toString());
+		assertEquals("0", new BigInteger("5").modExp(new BigInteger("5"), new BarrettReducer(new BigInteger("1"))).toString());
+		
+		//brute force
+		BigInteger b1, b2, b3;
+		java.math.BigInteger r1, r2, r3;
+		for (int i = 0; i < 100; i++) {
+			b1 = BigInteger.random(1024, null);
+			b2 = BigInteger.random(512, null).add(new BigInteger("1"));
+			b3 = BigInteger.random(512, null);
+			if (i % 2 == 0) {
+				b2 = b2.leftShift(1);
+			}
+			reducer = new BarrettReducer(b2);
+			r1 = new java.math.BigInteger(b1.toString(), 16);
+			r2 = new java.math.BigInteger(b2.toString(), 16);
+			r3 = new java.math.BigInteger(b3.toString(), 16);
+			assertEquals(r1.add(r3).mod(r2).toString(16), b1.modAdd(b3, reducer).toString());
+			assertEquals(r1.multiply(r3).mod(r2).toString(16), b1.modMultiply(b3, reducer).toString());
+			assertEquals(r1.multiply(r3).mod(r2).toString(16), b1.modQuadMultiply(b3, reducer).toString());
+			assertEquals(r1.multiply(r1).mod(r2).toString(16), b1.modSquare(reducer).toString());
+			if (i < 20) {
+				assertEquals(r1.modPow(r3, r2).toString(16), b1.modExp(b3, reducer).toString());
+				assertEquals(r1.modPow(r3, r2).toString(16), b1.modExp(b3, b2).toString());
+				//large enough for the reduction to use subquadratic products
+				b1 = BigInteger.random(8192, null);
+				b2 = BigInteger.random(4096, null).add(new BigInteger("1"));
+				r1 = new java.math.BigInteger(b1.toString(), 16);
+				r2 = new java.math.BigInteger(b2.toString(), 16);
+				assertEquals(r1.mod(r2).toString(16), new BarrettReducer(b2).reduce(b1).toString());
+				if (i < 4) {
+					b2 = b2.leftShift(1);
+					r2 = new java.math.BigInteger(b2.toString(), 16);
+					assertEquals(r3.modPow(r3, r2).toString(16), b3.modExp(b3, new BarrettReducer(b2)).toString());
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testMutableBigInteger() {
+		
+		MutableBigInteger m = new MutableBigInteger(1);
+		assertEquals("0", m.toBigInteger().toString());
+		m.add(new BigInteger("ffffffff").mag);
+		m.add(new BigInteger("1").mag);
+		assertEquals("100000000", m.toBigInteger().toString());
+		m.rightShift(33);
+		assertEquals("0", m.toBigInteger().toString());
+		
+		//brute force
+		BigInteger b1, b2;
+		java.math.BigInteger r1, r2, r;
+		for (int i = 0; i < 100; i++) {
+			b1 = BigInteger.random(1024, null);
+			b2 = BigInteger.random(512, null);
+			r1 = new java.math.BigInteger(b1.toString(), 16);
+			r2 = new java.math.BigInteger(b2.toString(), 16);
+			int word = b2.mag.length == 0 ? 0 : b2.mag[0];
+			int shift = i * 7;
+			m.setValue(b1.mag);
+			m.add(b2.mag);
+			r = r1.add(r2);
+			assertEquals(r.toString(16), m.toBigInteger().toString());
+			m.leftShift(shift);
+			r = r.shiftLeft(shift);
+			assertEquals(r.toString(16), m.toBigInteger().toString());
+			m.multiplyAccumulate(b1.mag, 0, b1.mag.length, word, i % 5);
+			r = r.add(r1.multiply(java.math.BigInteger.valueOf(word & 0xffffffffL)).shiftLeft(32 * (i % 5)));
+			assertEquals(r.toString(16), m.toBigInteger().toString());
+			m.subtract(b2.mag);
+			r = r.subtract(r2);
+			assertEquals(r.toString(16), m.toBigInteger().toString());
+			assertEquals(r.compareTo(r1), m.compareTo(b1.mag));
+			m.rightShift(shift + 5);
+			r = r.shiftRight(shift + 5);
+			assertEquals(r.toString(16), m.toBigInteger().toString());
+		}
+	}
+
+	@Test
+	public void testEncryptStream() throws IOException {
+		
+		RSAPrivateKey key = BigInteger.generateRSAKey(new BigInteger("7"), new BigInteger("b"));
+		try {
+			BigInteger.encryptStream(new ByteArrayInputStream(new byte[1]), new ByteArrayOutputStream(), key.getN(), key.getE());
+			fail("a 7 bit modulus cannot hold a byte");
+		} catch (ArithmeticException e) {
+		}
+		
+		key = BigInteger.generateRSAKey(128);
+		int plainSize = (key.getN().bitLength() - 1) / 8, cipherSize = (key.getN().bitLength() + 7) / 8;
+		Random random = new Random(1);
+		for (int len : new int[] { 0, 1, plainSize - 1, plainSize, plainSize + 1, 3 * plainSize, 1000 }) {
+			byte[] plain = new byte[len];
+			random.nextBytes(plain);
+			ByteArrayOutputStream cipher = new ByteArrayOutputStream();
+			BigInteger.encryptStream(new ByteArrayInputStream(plain), cipher, key.getN(), key.getE());
+			assertEquals(cipherSize * (len / plainSize + 1), cipher.size());
+			
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			BigInteger.decryptStream(new ByteArrayInputStream(cipher.toByteArray()), out, key.getN(), key.getD());
+			assertArrayEquals(plain, out.toByteArray());
+			out = new ByteArrayOutputStream();
+			BigInteger.decryptStream(new ByteArrayInputStream(cipher.toByteArray()), out, key);
+			assertArrayEquals(plain, out.toByteArray());
+			
+			ByteArrayOutputStream cipher2 = new ByteArrayOutputStream();
+			BigInteger.encryptStream(Channels.newChannel(new ByteArrayInputStream(plain)), Channels.newChannel(cipher2), key.getN(), key.getE());
+			assertArrayEquals(cipher.toByteArray(), cipher2.toByteArray());
+			out = new ByteArrayOutputStream();
+			BigInteger.decryptStream(Channels.newChannel(new ByteArrayInputStream(cipher2.toByteArray())), Channels.newChannel(out), key);
+			assertArrayEquals(plain, out.toByteArray());
+		}
+		
+		ByteArrayOutputStream cipher = new ByteArrayOutputStream();
+		BigInteger.encryptStream(new ByteArrayInputStream(new byte[100]), cipher, key.getN(), key.getE());
+		try {
+			BigInteger.decryptStream(new ByteArrayInputStream(Arrays.copyOf(cipher.toByteArray(), cipher.size() - 1)), new ByteArrayOutputStream(), key);
+			fail("truncated cipher text");
+		} catch (EOFException e) {
+		}
+	}
+
+	@Test
+	public void testParallelBlocks() throws IOException {
+		
+		RSAPrivateKey key = BigInteger.generateRSAKey(128);
+		List<BigInteger> blocks = new ArrayList<BigInteger>();
+		for (int i = 0; i < 100; i++) {
+			blocks.add(BigInteger.random(key.getN().bitLength() - 1, null));
+		}
+		List<BigInteger> ciphers = BigInteger.encryptBlocks(blocks, key.getN(), key.getE());
+		assertEquals(blocks.size(), ciphers.size());
+		for (int i = 0; i < blocks.size(); i++) {
+			assertEquals(blocks.get(i).encrypt(key.getN(), key.getE()), ciphers.get(i));
+		}
+		assertEquals(blocks, BigInteger.decryptBlocks(ciphers, key));
+		assertEquals(blocks, BigInteger.decryptBlocks(ciphers, key.getN(), key.getD()));
+		assertTrue(BigInteger.encryptBlocks(new ArrayList<BigInteger>(), key.getN(), key.getE()).isEmpty());
+		
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			int plainSize = (key.getN().bitLength() - 1) / 8;
+			Random random = new Random(2);
+			for (int len : new int[] { 0, 1, plainSize, 10 * plainSize + 3, 5000 }) {
+				byte[] plain = new byte[len];
+				random.nextBytes(plain);
+				ByteArrayOutputStream cipher = new ByteArrayOutputStream();
+				BigInteger.encryptStream(new ByteArrayInputStream(plain), cipher, key.getN(), key.getE(), executor);
+				ByteArrayOutputStream expected = new ByteArrayOutputStream();
+				BigInteger.encryptStream(new ByteArrayInputStream(plain), expected, key.getN(), key.getE());
+				assertArrayEquals(expected.toByteArray(), cipher.toByteArray());
+				
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				BigInteger.decryptStream(new ByteArrayInputStream(cipher.toByteArray()), out, key, executor);
+				assertArrayEquals(plain, out.toByteArray());
+				out = new ByteArrayOutputStream();
+				BigInteger.decryptStream(new ByteArrayInputStream(cipher.toByteArray()), out, key.getN(), key.getD(), executor);
+				assertArrayEquals(plain, out.toByteArray());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testEncryptFile() throws IOException {
+		
+		RSAPrivateKey key = BigInteger.generateRSAKey(128);
+		int plainSize = (key.getN().bitLength() - 1) / 8;
+		File plainFile = File.createTempFile("plain", ".bin");
+		File cipherFile = File.createTempFile("cipher", ".bin");
+		File outFile = File.createTempFile("out", ".bin");
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			Random random = new Random(3);
+			for (int len : new int[] { 0, 1, plainSize, 100000 }) {
+				byte[] plain = new byte[len];
+				random.nextBytes(plain);
+				FileOutputStream out = new FileOutputStream(plainFile);
+				out.write(plain);
+				out.close();
+				
+				BigInteger.encryptFile(plainFile, cipherFile, key.getN(), key.getE(), executor);
+				ByteArrayOutputStream expected = new ByteArrayOutputStream();
+				BigInteger.encryptStream(new ByteArrayInputStream(plain), expected, key.getN(), key.getE());
+				assertArrayEquals(expected.toByteArray(), Files.readAllBytes(cipherFile.toPath()));
+				
+				BigInteger.decryptFile(cipherFile, outFile, key, executor);
+				assertArrayEquals(plain, Files.readAllBytes(outFile.toPath()));
+				BigInteger.decryptFile(cipherFile, outFile, key.getN(), key.getD());
+				assertArrayEquals(plain, Files.readAllBytes(outFile.toPath()));
+			}
+			
+			RandomAccessFile truncated = new RandomAccessFile(cipherFile, "rw");
+			truncated.setLength(cipherFile.length() - 1);
+			truncated.close();
+			try {
+				BigInteger.decryptFile(cipherFile, outFile, key);
+				fail("truncated cipher text");
+			} catch (EOFException e) {
+			}
+		} finally {
+			executor.shutdownNow();
+			plainFile.delete();
+			cipherFile.delete();
+			outFile.delete();
+		}
+	}
+
+	@Test
+	public void testByteArray() {
+		
+		assertEquals(0, new BigInteger("0").toByteArray().length);
+		assertEquals("0", BigInteger.fromByteArray(new byte[0]).toString());
+		assertArrayEquals(new byte[] { 1, 2, 3 }, new BigInteger("10203").toByteArray());
+		assertArrayEquals(new byte[] { 3, 2, 1 }, new BigInteger("10203").toByteArray(ByteOrder.LITTLE_ENDIAN));
+		assertEquals("10203", BigInteger.fromByteArray(new byte[] { 0, 1, 2, 3 }).toString());
+		assertEquals("30201", BigInteger.fromByteArray(new byte[] { 1, 2, 3, 0 }, ByteOrder.LITTLE_ENDIAN).toString());
+		assertEquals("ab", new BigInteger("0x00ab").toString());
+		
+		//brute force
+		ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+		for (int i = 0; i < 100; i++) {
+			BigInteger b1 = BigInteger.random(i * 13, null);
+			java.math.BigInteger r1 = new java.math.BigInteger(b1.toString(), 16);
+			byte[] expected = r1.toByteArray();
+			if (expected[0] == 0) {
+				expected = Arrays.copyOfRange(expected, 1, expected.length);
+			}
+			assertArrayEquals(expected, b1.toByteArray());
+			assertEquals(b1, BigInteger.fromByteArray(b1.toByteArray()));
+			assertEquals(b1, BigInteger.fromByteArray(b1.toByteArray(ByteOrder.LITTLE_ENDIAN), ByteOrder.LITTLE_ENDIAN));
+			buffer.order(i % 2 == 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+			b1.writeTo(buffer);
+			b1.writeTo(buffer);
+			buffer.flip();
+			assertEquals(b1, BigInteger.readFrom(buffer));
+			assertEquals(b1, BigInteger.readFrom(buffer));
+			assertFalse(buffer.hasRemaining());
+			buffer.clear();
+		}
+		
+		buffer.putInt(1000).flip();
+		try {
+			BigInteger.readFrom(buffer);
+			fail("limb count beyond the end of the buffer");
+		} catch (BufferUnderflowException e) {
+		}
+	}
+
+	@Test
+	public void testKeyFile() throws IOException {
+		
+		RSAPrivateKey key = BigInteger.generateRSAKey(256);
+		File file = File.createTempFile("key", ".bin");
+		try {
+			key.store(file);
+			RSAPrivateKey loaded = RSAPrivateKey.load(file);
+			assertEquals(Arrays.toString(key.toArray()), Arrays.toString(loaded.toArray()));
+			assertEquals(key.getP(), loaded.getP());
+			assertEquals(key.getQ(), loaded.getQ());
+			assertEquals(key.getDP(), loaded.getDP());
+			assertEquals(key.getDQ(), loaded.getDQ());
+			assertEquals(key.getQInv(), loaded.getQInv());
+			BigInteger test1 = new BigInteger("2000");
+			assertEquals(test1, test1.encrypt(key.getN(), key.getE()).decrypt(loaded));
+		} finally {
+			file.delete();
+		}
+		
+		//many keys in one buffer
+		ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+		key.writeTo(buffer);
+		key.writeTo(buffer);
+		buffer.flip();
+		assertEquals(key.getN(), RSAPrivateKey.readFrom(buffer).getN());
+		assertEquals(key.getN(), RSAPrivateKey.readFrom(buffer).getN());
+		try {
+			RSAPrivateKey.readFrom(ByteBuffer.wrap(new byte[] { 1, 2, 3, 4 }));
+			fail("not a key");
+		} catch (IOException e) {
+		}
+		
+		//every truncation of a key is rejected as an IOException
+		ByteBuffer whole = ByteBuffer.allocate(1 << 16);
+		key.writeTo(whole);
+		whole.flip();
+		for (int length = 4; length < whole.limit(); length += 3) {
+			ByteBuffer truncated = whole.duplicate();
+			truncated.limit(length);
+			try {
+				RSAPrivateKey.readFrom(truncated);
+				fail("truncated to " + length + " bytes");
+			} catch (IOException e) {
+				assertEquals("truncated rsa private key", e.getMessage());
+			}
+		}
+		//as is a corrupt limb count, with a message of its own
+		for (int count : new int[] { Integer.MAX_VALUE, -1 }) {
+			ByteBuffer corrupt = whole.duplicate();
+			corrupt.putInt(4, count);
+			try {
+				RSAPrivateKey.readFrom(corrupt);
+				fail("corrupt limb count");
+			} catch (IOException e) {
+				assertEquals("corrupt rsa private key", e.getMessage());
+			}
+		}
+	}
+
+	@Test
+	public void testRadix() {
+		
+		assertEquals("0", new BigInteger("0").toString(10));
+		assertEquals("255", new BigInteger("ff").toString(10));
+		assertEquals("11111111", new BigInteger("ff").toString(2));
+		assertEquals("ff", BigInteger.valueOf("255", 10).toString());
+		assertEquals("ff", BigInteger.valueOf("0000255", 10).toString());
+		assertEquals("0", BigInteger.valueOf("0", 7).toString());
+		assertEquals("23", BigInteger.valueOf("z", 36).toString());
+		for (String bad : new String[] { "", "-1", "+1", "12a" }) {
+			try {
+				BigInteger.valueOf(bad, 10);
+				fail("parsed \"" + bad + "\"");
+			} catch (NumberFormatException e) {
+			}
+		}
+		try {
+			new BigInteger("1").toString(37);
+			fail("radix 37");
+		} catch (NumberFormatException e) {
+		}
+		
+		//brute force
+		Random random = new Random(4);
+		for (int i = 0; i < 200; i++) {
+			int radix = Character.MIN_RADIX + i % (Character.MAX_RADIX - 1);
+			BigInteger b1 = BigInteger.random(random.nextInt(i < 190 ? 3000 : 100000), random);
+			java.math.BigInteger r1 = new java.math.BigInteger(b1.toString(), 16);
+			String expected = r1.toString(radix);
+			assertEquals(expected, b1.toString(radix));
+			assertEquals(b1, BigInteger.valueOf(expected, radix));
+			assertEquals(b1, BigInteger.valueOf(expected.toUpperCase(), radix));
+		}
+	}
+
+	@Test
+	public void testMetrics() throws Exception {
+		
+		Metrics.setEnabled(false);
+		Metrics.reset();
+		new BigInteger("ffff").quadMultiply(new BigInteger("ff"));
+		assertEquals(0, Metrics.snapshot().getCount(Metrics.Operation.QUAD_MULTIPLY));
+		Metrics.setEnabled(true);
+		try {
+			//a call of n bits is counted in bucket floor(log2(n)) + 1
+			new BigInteger("ffff").quadMultiply(new BigInteger("ff"));
+			new BigInteger("ffffffff").quadMultiply(new BigInteger("1"));
+			Metrics.Snapshot s = Metrics.snapshot();
+			assertEquals(2, s.getCount(Metrics.Operation.QUAD_MULTIPLY));
+			assertEquals(1, s.getHistogram(Metrics.Operation.QUAD_MULTIPLY)[5]);
+			assertEquals(1, s.getHistogram(Metrics.Operation.QUAD_MULTIPLY)[6]);
+			assertEquals(Metrics.BUCKETS, s.getHistogram(Metrics.Operation.QUAD_MULTIPLY).length);
+			//multiply counts the algorithm which actually runs in each band
+			int[] bands = { BigInteger.getKaratsubaThreshold() - 1, BigInteger.getToomCookThreshold() - 1, BigInteger.getToomCookThreshold() };
+			Metrics.Operation[] ops = { Metrics.Operation.QUAD_MULTIPLY, Metrics.Operation.KARATSUBA_MULTIPLY, Metrics.Operation.TOOM_COOK_3_MULTIPLY };
+			for (int i = 0; i < bands.length; i++) {
+				int bits = 32 * bands[i];
+				BigInteger b1 = new BigInteger("1").leftShift(bits - 1).add(BigInteger.random(bits - 1, null));
+				BigInteger b2 = new BigInteger("1").leftShift(bits - 1).add(BigInteger.random(bits - 1, null));
+				for (int j = 0; j < 2; j++) {
+					Metrics.reset();
+					if (j == 0) {
+						b1.multiply(b2);
+					} else {
+						b1.square();
+					}
+					s = Metrics.snapshot();
+					for (int k = 0; k < ops.length; k++) {
+						assertEquals(k == i ? 1 : 0, s.getCount(ops[k]));
+					}
+				}
+			}
+			Metrics.reset();
+			new BigInteger("3").modExp(new BigInteger("10"), new BigInteger("65"));
+			new BigInteger("3").modExp(new BigInteger("10"), new BigInteger("64"));
+			s = Metrics.snapshot();
+			assertEquals(1, s.getHistogram(Metrics.Operation.MONTGOMERY_EXP)[3]);
+			assertEquals(1, s.getHistogram(Metrics.Operation.BARRETT_EXP)[3]);
+			assertEquals(0, s.getCount(Metrics.Operation.NEW_PRIME));
+			
+			//every candidate which survives the sieve gets one primality test
+			Metrics.reset();
+			BigInteger.newPrime(256, (float)0.000001, new Random(5));
+			s = Metrics.snapshot();
+			assertEquals(1, s.getHistogram(Metrics.Operation.NEW_PRIME)[9]);
+			assertTrue(s.getPrimeCandidates() > 0);
+			assertEquals(s.getPrimeCandidates(), s.getCount(Metrics.Operation.PRIME_TEST));
+			assertTrue(s.toString().contains("NEW_PRIME=1"));
+			
+			//jmx
+			Metrics.registerMBean();
+			Metrics.registerMBean();
+			try {
+				MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+				ObjectName name = new ObjectName(Metrics.OBJECT_NAME);
+				assertEquals(Boolean.TRUE, server.getAttribute(name, "Enabled"));
+				assertEquals(s.getPrimeCandidates(), server.getAttribute(name, "PrimeCandidates"));
+				assertNotNull(server.getAttribute(name, "Counts"));
+				assertNotNull(server.getAttribute(name, "Histograms"));
+				server.invoke(name, "reset", null, null);
+				assertEquals(0, Metrics.snapshot().getPrimeCandidates());
+			} finally {
+				Metrics.unregisterMBean();
+			}
+		} finally {
+			Metrics.setEnabled(false);
+			Metrics.reset();
+		}
+		
+		//flight recorder events
+		File f = File.createTempFile("metrics", ".jfr");
+		try {
+			byte[] msg = new byte[100];
+			RSAPrivateKey key;
+			Recording recording = new Recording();
+			try {
+				recording.enable(KeyGenerationEvent.class);
+				recording.enable(ModExpEvent.class);
+				recording.enable(BlockCipherEvent.class);
+				recording.start();
+				key = BigInteger.generateRSAKey(64);
+				BigInteger.encryptStream(new ByteArrayInputStream(msg), new ByteArrayOutputStream(), key.getN(), key.getE());
+				recording.stop();
+				recording.dump(f.toPath());
+			} finally {
+				recording.close();
+			}
+			int keys = 0, ciphers = 0, exps = 0;
+			for (RecordedEvent e : RecordingFile.readAllEvents(f.toPath())) {
+				String type = e.getEventType().getName();
+				if (type.equals("numutils.KeyGeneration")) {
+					keys++;
+					assertEquals(64, e.getInt("bits"));
+				} else if (type.equals("numutils.BlockCipher")) {
+					ciphers++;
+					assertEquals("encrypt", e.getString("operation"));
+					assertEquals(msg.length / ((key.getN().bitLength() - 1) / 8) + 1, e.getLong("blocks"));
+				} else if (type.equals("numutils.ModExp")) {
+					exps++;
+				}
+			}
+			assertEquals(1, keys);
+			assertEquals(1, ciphers);
+			assertTrue(exps > 0);
+		} finally {
+			f.delete();
+		}
+	}
+
+	@Test
+	public void testValueOf() {
+		
+		assertSame(BigInteger.valueOf(5), BigInteger.valueOf(5));
+		assertSame(BigInteger.valueOf(1023), BigInteger.valueOf(1023));
+		assertEquals(new BigInteger("0"), BigInteger.valueOf(0));
+		assertEquals(new BigInteger("3ff"), BigInteger.valueOf(1023));
+		assertEquals(new BigInteger("400"), BigInteger.valueOf(1024));
+		assertEquals(new BigInteger("7fffffffffffffff"), BigInteger.valueOf(Long.MAX_VALUE));
+		try {
+			BigInteger.valueOf(-1);
+			fail("negative value");
+		} catch (ArithmeticException e) {
+		}
+		//the long fast paths stop exactly at 63 bits
+		BigInteger max = BigInteger.valueOf(Long.MAX_VALUE);
+		assertEquals("fffffffffffffffe", max.add(max).toString());
+		assertEquals("3fffffffffffffff0000000000000001", max.multiply(max).toString());
+		assertEquals("0", max.subtract(max).toString());
+		assertEquals("1", max.quadDivision(max)[0].toString());
+		
+		//brute force
+		Random random = new Random(6);
+		for (int i = 0; i < 20000; i++) {
+			BigInteger b1 = BigInteger.random(random.nextInt(66), random);
+			BigInteger b2 = BigInteger.random(random.nextInt(66), random);
+			java.math.BigInteger r1 = new java.math.BigInteger(b1.toString(), 16);
+			java.math.BigInteger r2 = new java.math.BigInteger(b2.toString(), 16);
+			assertEquals(r1.add(r2).toString(16), b1.add(b2).toString());
+			assertEquals(r1.multiply(r2).toString(16), b1.multiply(b2).toString());
+			if (r1.compareTo(r2) >= 0) {
+				assertEquals(r1.subtract(r2).toString(16), b1.subtract(b2).toString());
+			}
+			if (r2.signum() != 0) {
+				java.math.BigInteger[] qr = r1.divideAndRemainder(r2);
+				BigInteger[] qr2 = b1.quadDivision(b2);
+				assertEquals(qr[0].toString(16), qr2[0].toString());
+				assertEquals(qr[1].toString(16), qr2[1].toString());
+			}
+			if (r1.bitLength() < 63) {
+				assertEquals(b1, BigInteger.valueOf(r1.longValue()));
+			}
+		}
+	}
+
 }
@@ -0,0 +1,32 @@
+package numutils;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// flight recorder event for one bulk encryption or decryption of a stream,
+// file or list of blocks
+@Name("numutils.BlockCipher")
+@Label("RSA Block Cipher")
+@Category({ "numutils", "RSA" })
+final class BlockCipherEvent extends Event {
+
+	@Label("Operation")
+	String operation;
+
+	@Label("Modulus Bits")
+	int modulusBits;
+
+	@Label("Parallel")
+	boolean parallel;
+
+	@Label("Blocks")
+	long blocks;
+
+	BlockCipherEvent(String operation, int modulusBits, boolean parallel) {
+		this.operation = operation;
+		this.modulusBits = modulusBits;
+		this.parallel = parallel;
+	}
+}
@@ -0,0 +1,175 @@
+package numutils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+import java.util.Random;
+
+// measures the crossover points between the multiplication algorithms on the
+// running jvm and applies them to BigInteger.multiply(). the thresholds can be
+// stored to and loaded from a properties file, so the (slow) measurement only
+// has to be done once per host.
+public class Calibration {
+
+	static final String KARATSUBA = "karatsubaThreshold";
+	static final String TOOM_COOK = "toomCookThreshold";
+	static final String NTT = "nttThreshold";
+
+	// the largest operands, in limbs, timed for the ntt crossover: 1m bits,
+	// where a single toom-cook sample already takes a good fraction of a
+	// second
+	private static final int NTT_LIMIT = 1 << 15;
+
+	// fixed seed, so that repeated calibrations time the same operands
+	private static final Random RANDOM = new Random(0);
+
+	private interface Product {
+		BigInteger apply(BigInteger a, BigInteger b);
+	}
+
+	public static void apply(Properties thresholds) {
+		BigInteger.setKaratsubaThreshold(Integer.parseInt(thresholds
+				.getProperty(KARATSUBA,
+						Integer.toString(BigInteger.getKaratsubaThreshold()))));
+		BigInteger.setToomCookThreshold(Integer.parseInt(thresholds
+				.getProperty(TOOM_COOK,
+						Integer.toString(BigInteger.getToomCookThreshold()))));
+		BigInteger.setNttThreshold(Integer.parseInt(thresholds.getProperty(
+				NTT, Integer.toString(BigInteger.getNttThreshold()))));
+	}
+
+	public static Properties calibrate() {
+		// each threshold is the first operand length, in limbs, at which the
+		// faster algorithm doing a single level of splitting beats the slower
+		// one. the thresholds are found bottom up, so each measurement uses
+		// the already calibrated lower levels. they are passed to the
+		// algorithms directly, so that other threads keep multiplying with
+		// the current thresholds until the new ones are applied at the end.
+		final int[] limbs = { BigInteger.getKaratsubaThreshold(),
+				BigInteger.getToomCookThreshold() };
+		final Product quad = new Product() {
+			public BigInteger apply(BigInteger a, BigInteger b) {
+				return a.quadMultiply(b);
+			}
+		};
+		final Product karatsuba = new Product() {
+			public BigInteger apply(BigInteger a, BigInteger b) {
+				return new BigInteger(BigInteger.karatsuba(a.mag, b.mag,
+						limbs[0]));
+			}
+		};
+		final Product toomCook = new Product() {
+			public BigInteger apply(BigInteger a, BigInteger b) {
+				return new BigInteger(BigInteger.toomCook3(a.mag, b.mag,
+						limbs[0], limbs[1]));
+			}
+		};
+		final Product ntt = new Product() {
+			public BigInteger apply(BigInteger a, BigInteger b) {
+				return a.nttMultiply(b);
+			}
+		};
+		// give the jit a chance to compile every algorithm before timing any
+		BigInteger a = BigInteger.random(32 * 512, RANDOM);
+		Product[] products = { quad, karatsuba, toomCook, ntt };
+		for (int i = 0; i < products.length; i++) {
+			time(products[i], a, a);
+			time(products[i], a, a);
+		}
+		limbs[0] = crossover(8, 512, quad, karatsuba, limbs, 0, 2);
+		limbs[1] = crossover(2 * limbs[0], 8192, karatsuba, toomCook, limbs,
+				1, 3);
+		int n = crossover(2 * limbs[1], NTT_LIMIT, toomCook, ntt, null, 0, 0);
+		BigInteger.setKaratsubaThreshold(limbs[0]);
+		BigInteger.setToomCookThreshold(limbs[1]);
+		// when toom-cook still wins at the largest size timed, ntt can only
+		// take over beyond it
+		BigInteger.setNttThreshold(n < NTT_LIMIT ? n : Math.max(NTT_LIMIT,
+				BigInteger.getNttThreshold()));
+		return current();
+	}
+
+	// times fast against slow for operands of from to to limbs. when limbs is
+	// given, limbs[index] is set for each length so that fast splits exactly
+	// once, into split parts.
+	private static int crossover(int from, int to, Product slow,
+			Product fast, int[] limbs, int index, int split) {
+		int wins = 0;
+		for (int n = from; n <= to; n += Math.max(1, n / 8)) {
+			if (limbs != null) {
+				limbs[index] = n / split + 1;
+			}
+			BigInteger a = BigInteger.random(32 * n, RANDOM);
+			BigInteger b = BigInteger.random(32 * n, RANDOM);
+			// require three consecutive wins, so that a few noisy samples
+			// do not end the search early
+			if (time(fast, a, b) < time(slow, a, b)) {
+				if (++wins == 3) {
+					return n;
+				}
+			} else {
+				wins = 0;
+			}
+		}
+		return to;
+	}
+
+	public static Properties current() {
+		Properties thresholds = new Properties();
+		thresholds.setProperty(KARATSUBA,
+				Integer.toString(BigInteger.getKaratsubaThreshold()));
+		thresholds.setProperty(TOOM_COOK,
+				Integer.toString(BigInteger.getToomCookThreshold()));
+		thresholds.setProperty(NTT,
+				Integer.toString(BigInteger.getNttThreshold()));
+		return thresholds;
+	}
+
+	public static void load(File file) throws IOException {
+		Properties thresholds = new Properties();
+		InputStream in = new FileInputStream(file);
+		try {
+			thresholds.load(in);
+		} finally {
+			in.close();
+		}
+		apply(thresholds);
+	}
+
+	public static void store(File file) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			current().store(out, "numutils.BigInteger multiplication thresholds");
+		} finally {
+			out.close();
+		}
+	}
+
+	private static long time(Product p, BigInteger a, BigInteger b) {
+		// best of several runs after a warm-up, repeated until at least 10ms
+		// have been spent, to keep jit and gc noise out of the comparison
+		p.apply(a, b);
+		long best = Long.MAX_VALUE, total = 0;
+		for (int i = 0; i < 5 || total < 10000000L; i++) {
+			long start = System.nanoTime();
+			p.apply(a, b);
+			long elapsed = System.nanoTime() - start;
+			best = Math.min(best, elapsed);
+			total += elapsed;
+		}
+		return best;
+	}
+
+	public static void main(String[] args) throws IOException {
+		// usage: java numutils.Calibration [file]
+		Properties thresholds = calibrate();
+		System.out.println(thresholds);
+		if (args.length > 0) {
+			store(new File(args[0]));
+		}
+	}
+}
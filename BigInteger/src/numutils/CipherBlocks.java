@@ -0,0 +1,452 @@
+package numutils;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+// the block layout used by the byte-oriented rsa operations. a modulus N of k
+// bits takes plaintext blocks of (k - 1) / 8 bytes, which are always below N,
+// and writes each cipher block as a fixed-width big-endian number of
+// (k + 7) / 8 bytes. the plaintext is padded iso/iec 7816-4 style: a 0x80
+// byte and then zeros up to the end of the last block, so that a message of
+// any length (even a multiple of the block size) can be recovered exactly.
+final class CipherBlocks {
+
+	static final int PADDING = 0x80;
+	// the parallel operations keep at most this many blocks per processor in
+	// flight, so that their memory use does not grow with the input
+	static final int BLOCKS_IN_FLIGHT = 4;
+	// the file operations map at most this much plaintext at a time, well
+	// below the 2gb limit of a single mapping
+	static final long REGION_SIZE = 1L << 26;
+
+	final BigInteger N;
+	final int plainSize, cipherSize;
+	// the exponent, or the private key when decrypting with crt
+	private final BigInteger exp;
+	private final RSAPrivateKey key;
+	private final MontgomeryContext ctx;
+
+	CipherBlocks(BigInteger N, BigInteger exp) {
+		this(N, exp, null);
+	}
+
+	CipherBlocks(RSAPrivateKey key) {
+		this(key.getN(), null, key);
+	}
+
+	private CipherBlocks(BigInteger N, BigInteger exp, RSAPrivateKey key) {
+		this.N = N;
+		this.exp = exp;
+		this.key = key;
+		plainSize = (N.bitLength() - 1) / 8;
+		cipherSize = (N.bitLength() + 7) / 8;
+		if (plainSize == 0) {
+			throw new ArithmeticException(
+					"modulus too small for block encryption");
+		}
+		ctx = key == null && N.testBit(0) ? new MontgomeryContext(N) : null;
+	}
+
+	// applies the exponent (or the crt decryption of the key) to a block.
+	// safe to call from several threads at once.
+	BigInteger apply(BigInteger block) {
+		if (key != null) {
+			return key.decrypt(block);
+		}
+		return ctx != null ? ctx.modExp(block, exp) : block.modExp(exp, N);
+	}
+
+	// applies the exponent to every block, in parallel on the executor,
+	// returning the results in the same order
+	private List<BigInteger> apply(List<BigInteger> blocks,
+			ExecutorService executor) {
+		List<BigInteger> result = new ArrayList<BigInteger>(blocks.size());
+		ArrayDeque<Future<BigInteger>> pending = new ArrayDeque<Future<BigInteger>>();
+		try {
+			for (int i = 0; i < blocks.size() || !pending.isEmpty();) {
+				for (; i < blocks.size() && pending.size() < inFlight(); i++) {
+					final BigInteger block = blocks.get(i);
+					pending.add(executor.submit(new Callable<BigInteger>() {
+						public BigInteger call() {
+							return apply(block);
+						}
+					}));
+				}
+				try {
+					result.add(await(pending.poll()));
+				} catch (IOException e) {
+					// apply does not throw any checked exceptions
+					throw new RuntimeException(e);
+				}
+			}
+		} finally {
+			cancel(pending);
+		}
+		return result;
+	}
+
+	// decrypts the cipherSize bytes at in[inOff] into the plainSize bytes at
+	// out[outOff]
+	void decryptBlock(byte[] in, int inOff, byte[] out, int outOff)
+			throws IOException {
+		decryptBlock(ByteBuffer.wrap(in), inOff, ByteBuffer.wrap(out), outOff);
+	}
+
+	void decryptBlock(ByteBuffer in, int inIndex, ByteBuffer out,
+			int outIndex) throws IOException {
+		BigInteger cipher = BigInteger.fromByteBuffer(in, inIndex, cipherSize);
+		if (cipher.compareTo(N) >= 0) {
+			throw new IOException("corrupt cipher block");
+		}
+		BigInteger message = apply(cipher);
+		if (message.bitLength() > 8 * plainSize) {
+			throw new IOException("corrupt cipher block");
+		}
+		message.toByteBuffer(out, outIndex, plainSize);
+	}
+
+	// encrypts the plainSize bytes at in[inOff] into the cipherSize bytes at
+	// out[outOff]
+	void encryptBlock(byte[] in, int inOff, byte[] out, int outOff) {
+		encryptBlock(ByteBuffer.wrap(in), inOff, ByteBuffer.wrap(out), outOff);
+	}
+
+	void encryptBlock(ByteBuffer in, int inIndex, ByteBuffer out, int outIndex) {
+		apply(BigInteger.fromByteBuffer(in, inIndex, plainSize)).toByteBuffer(
+				out, outIndex, cipherSize);
+	}
+
+	List<BigInteger> decrypt(List<BigInteger> blocks,
+			ExecutorService executor) {
+		BlockCipherEvent event = begin("decrypt", true);
+		List<BigInteger> result = apply(blocks, executor);
+		commit(event, blocks.size());
+		return result;
+	}
+
+	void decrypt(InputStream in, OutputStream out) throws IOException {
+		BlockCipherEvent event = begin("decrypt", false);
+		// one block of lookahead, since only the last block is padded
+		byte[] cipher = new byte[cipherSize];
+		byte[] plain = new byte[plainSize];
+		int n = read(in, cipher, 0, cipherSize);
+		if (n < cipherSize) {
+			throw new EOFException("truncated cipher block");
+		}
+		for (long blocks = 1;; blocks++) {
+			decryptBlock(cipher, 0, plain, 0);
+			n = read(in, cipher, 0, cipherSize);
+			if (n == 0) {
+				out.write(plain, 0, unpaddedLength(plain, 0, plainSize));
+				commit(event, blocks);
+				return;
+			}
+			if (n < cipherSize) {
+				throw new EOFException("truncated cipher block");
+			}
+			out.write(plain);
+		}
+	}
+
+	void decrypt(InputStream in, OutputStream out, ExecutorService executor)
+			throws IOException {
+		BlockCipherEvent event = begin("decrypt", true);
+		ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+		long blocks = 0;
+		try {
+			boolean done = false;
+			while (!done || !pending.isEmpty()) {
+				while (!done && pending.size() < inFlight()) {
+					final byte[] cipher = new byte[cipherSize];
+					int n = read(in, cipher, 0, cipherSize);
+					if (n == 0 && !pending.isEmpty()) {
+						done = true;
+					} else if (n < cipherSize) {
+						throw new EOFException("truncated cipher block");
+					} else {
+						blocks++;
+						pending.add(executor.submit(new Callable<byte[]>() {
+							public byte[] call() throws IOException {
+								byte[] plain = new byte[plainSize];
+								decryptBlock(cipher, 0, plain, 0);
+								return plain;
+							}
+						}));
+					}
+				}
+				byte[] plain = await(pending.poll());
+				// once the input is exhausted, the last block in flight is
+				// the padded one
+				out.write(plain, 0, done && pending.isEmpty() ? unpaddedLength(
+						plain, 0, plainSize) : plainSize);
+			}
+		} finally {
+			cancel(pending);
+		}
+		commit(event, blocks);
+	}
+
+	void decrypt(File in, File out, ExecutorService executor)
+			throws IOException {
+		BlockCipherEvent event = begin("decrypt", true);
+		long blocks;
+		RandomAccessFile src = new RandomAccessFile(in, "r");
+		try {
+			RandomAccessFile dst = new RandomAccessFile(out, "rw");
+			try {
+				long length = src.length();
+				if (length == 0 || length % cipherSize != 0) {
+					throw new EOFException("truncated cipher block");
+				}
+				// the last block is decrypted first, since its padding
+				// decides the size of the output
+				blocks = length / cipherSize;
+				byte[] cipher = new byte[cipherSize];
+				byte[] plain = new byte[plainSize];
+				src.seek(length - cipherSize);
+				src.readFully(cipher);
+				decryptBlock(cipher, 0, plain, 0);
+				int last = unpaddedLength(plain, 0, plainSize);
+				dst.setLength((blocks - 1) * plainSize + last);
+				mapRegions(src.getChannel(), cipherSize, dst.getChannel(),
+						plainSize, blocks - 1, false, executor);
+				dst.seek((blocks - 1) * plainSize);
+				dst.write(plain, 0, last);
+			} finally {
+				dst.close();
+			}
+		} finally {
+			src.close();
+		}
+		commit(event, blocks);
+	}
+
+	void encrypt(File in, File out, ExecutorService executor)
+			throws IOException {
+		BlockCipherEvent event = begin("encrypt", true);
+		long blocks;
+		RandomAccessFile src = new RandomAccessFile(in, "r");
+		try {
+			RandomAccessFile dst = new RandomAccessFile(out, "rw");
+			try {
+				// all full blocks are mapped, and the short (or empty) padded
+				// block at the end is written separately
+				long length = src.length();
+				blocks = length / plainSize;
+				dst.setLength((blocks + 1) * cipherSize);
+				mapRegions(src.getChannel(), plainSize, dst.getChannel(),
+						cipherSize, blocks, true, executor);
+				byte[] plain = new byte[plainSize];
+				byte[] cipher = new byte[cipherSize];
+				int n = (int) (length - blocks * plainSize);
+				src.seek(blocks * plainSize);
+				src.readFully(plain, 0, n);
+				pad(plain, 0, n);
+				encryptBlock(plain, 0, cipher, 0);
+				dst.seek(blocks * cipherSize);
+				dst.write(cipher);
+			} finally {
+				dst.close();
+			}
+		} finally {
+			src.close();
+		}
+		commit(event, blocks + 1);
+	}
+
+	// maps the first blocks blocks of src and dst in regions, which are
+	// encrypted or decrypted as executor tasks directly between the mappings
+	private void mapRegions(final FileChannel src, final int srcSize,
+			final FileChannel dst, final int dstSize, long blocks,
+			final boolean encrypt, ExecutorService executor)
+			throws IOException {
+		// regions small enough for every processor to get several of them,
+		// but no larger than REGION_SIZE, so that files of any size can be
+		// mapped
+		int processors = Runtime.getRuntime().availableProcessors();
+		long perRegion = Math.max(1, Math.min(REGION_SIZE / plainSize,
+				(blocks + BLOCKS_IN_FLIGHT * processors - 1)
+						/ (BLOCKS_IN_FLIGHT * processors)));
+		ArrayDeque<Future<Void>> pending = new ArrayDeque<Future<Void>>();
+		try {
+			for (long first = 0; first < blocks || !pending.isEmpty();) {
+				for (; first < blocks && pending.size() < 2 * processors;
+						first += perRegion) {
+					final long from = first;
+					final int count = (int) Math.min(perRegion, blocks - first);
+					pending.add(executor.submit(new Callable<Void>() {
+						public Void call() throws IOException {
+							ByteBuffer in = src.map(
+									FileChannel.MapMode.READ_ONLY, from
+											* srcSize, (long) count * srcSize);
+							ByteBuffer out = dst.map(
+									FileChannel.MapMode.READ_WRITE, from
+											* dstSize, (long) count * dstSize);
+							for (int i = 0; i < count; i++) {
+								if (encrypt) {
+									encryptBlock(in, i * srcSize, out, i
+											* dstSize);
+								} else {
+									decryptBlock(in, i * srcSize, out, i
+											* dstSize);
+								}
+							}
+							return null;
+						}
+					}));
+				}
+				await(pending.poll());
+			}
+		} finally {
+			cancel(pending);
+		}
+	}
+
+	List<BigInteger> encrypt(List<BigInteger> blocks,
+			ExecutorService executor) {
+		BlockCipherEvent event = begin("encrypt", true);
+		List<BigInteger> result = apply(blocks, executor);
+		commit(event, blocks.size());
+		return result;
+	}
+
+	void encrypt(InputStream in, OutputStream out) throws IOException {
+		BlockCipherEvent event = begin("encrypt", false);
+		byte[] plain = new byte[plainSize];
+		byte[] cipher = new byte[cipherSize];
+		for (long blocks = 1;; blocks++) {
+			int n = read(in, plain, 0, plainSize);
+			if (n < plainSize) {
+				pad(plain, 0, n);
+			}
+			encryptBlock(plain, 0, cipher, 0);
+			out.write(cipher);
+			if (n < plainSize) {
+				commit(event, blocks);
+				return;
+			}
+		}
+	}
+
+	void encrypt(InputStream in, OutputStream out, ExecutorService executor)
+			throws IOException {
+		BlockCipherEvent event = begin("encrypt", true);
+		ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+		long blocks = 0;
+		try {
+			boolean done = false;
+			while (!done || !pending.isEmpty()) {
+				while (!done && pending.size() < inFlight()) {
+					final byte[] plain = new byte[plainSize];
+					int n = read(in, plain, 0, plainSize);
+					if (n < plainSize) {
+						pad(plain, 0, n);
+						done = true;
+					}
+					blocks++;
+					pending.add(executor.submit(new Callable<byte[]>() {
+						public byte[] call() {
+							byte[] cipher = new byte[cipherSize];
+							encryptBlock(plain, 0, cipher, 0);
+							return cipher;
+						}
+					}));
+				}
+				out.write(await(pending.poll()));
+			}
+		} finally {
+			cancel(pending);
+		}
+		commit(event, blocks);
+	}
+
+	// fills the block at b[off] after its first n bytes with the padding
+	void pad(byte[] b, int off, int n) {
+		b[off + n] = (byte) PADDING;
+		for (int i = n + 1; i < plainSize; i++) {
+			b[off + i] = 0;
+		}
+	}
+
+	private static void commit(BlockCipherEvent event, long blocks) {
+		event.blocks = blocks;
+		event.commit();
+	}
+
+	// waits for a block task, passing on what it threw
+	static <T> T await(Future<T> f) throws IOException {
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("block operation interrupted");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	// starts the flight recorder event of a bulk operation, which
+	// commit(event, blocks) completes
+	private BlockCipherEvent begin(String operation, boolean parallel) {
+		BlockCipherEvent event = new BlockCipherEvent(operation,
+				N.bitLength(), parallel);
+		event.begin();
+		return event;
+	}
+
+	static void cancel(Iterable<? extends Future<?>> pending) {
+		for (Future<?> f : pending) {
+			f.cancel(true);
+		}
+	}
+
+	static int inFlight() {
+		return BLOCKS_IN_FLIGHT * Runtime.getRuntime().availableProcessors();
+	}
+
+	// reads up to len bytes, stopping short only at the end of the stream
+	static int read(InputStream in, byte[] b, int off, int len)
+			throws IOException {
+		int n = 0;
+		while (n < len) {
+			int r = in.read(b, off + n, len - n);
+			if (r < 0) {
+				break;
+			}
+			n += r;
+		}
+		return n;
+	}
+
+	// the length of the message in the last block, without its padding
+	static int unpaddedLength(byte[] b, int off, int len) throws IOException {
+		int i = len - 1;
+		while (i >= 0 && b[off + i] == 0) {
+			i--;
+		}
+		if (i < 0 || (b[off + i] & 0xff) != PADDING) {
+			throw new IOException("bad padding in last cipher block");
+		}
+		return i;
+	}
+}
@@ -1,6 +1,7 @@
 package numutils;
 
-import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /*************************************************************************
  *  Compilation:  javac Complex.java
@@ -132,39 +133,151 @@ public class Complex {
         return sum;
     }
     
+    // the recursive transform over Complex[] is kept for callers of the old
+    // api, but it now just delegates to the in-place transform below
     public static Complex[] fft(Complex[] a, int n) {
-    	if (n == 0) {
-    		return a;
-    	}
-    	Complex[] even = new Complex[a.length / 2];
-    	Complex[] odd = new Complex[a.length / 2];
-    	for (int i = 0; i < a.length / 2; i ++) {
-    		even[i] = a[2 * i];
-    		odd[i] = a[2 * i + 1];
-    	}
-    	even = fft(even, n - 1);
-    	odd = fft(odd, n - 1);
-    	Complex[] fft = new Complex[a.length];
-    	Complex omega = new Complex(0, 2 * Math.PI * Math.pow(2, -n)).exp();
-    	Complex omegaPow = new Complex(1, 0);
-    	for (int i = 0; i < fft.length / 2; i++) {
-    		fft[i] = even[i].plus(omegaPow.times(odd[i]));
-    		fft[i + fft.length / 2] = even[i].minus(omegaPow.times(odd[i]));
-    		omegaPow = omegaPow.times(omega);
-    	}
-    	return fft;
+        return transform(a, n, false);
     }
     
     public static Complex[] ifft(Complex[] a, int n) {
-    	Complex[] ifft = Arrays.copyOf(a, a.length);
-    	for (int i = 0; i < ifft.length; i++) {
-    		ifft[i] = ifft[i].conjugate();
-    	}
-    	ifft = fft(ifft, n);
-    	for (int i = 0; i < ifft.length; i++) {
-    		ifft[i] = ifft[i].conjugate().times(Math.pow(2, -n));
-    	}
-    	return ifft;
+        return transform(a, n, true);
+    }
+
+    private static Complex[] transform(Complex[] a, int n, boolean inverse) {
+        double[] re = new double[1 << n];
+        double[] im = new double[1 << n];
+        for (int i = 0; i < re.length; i++) {
+            re[i] = a[i].re;
+            im[i] = a[i].im;
+        }
+        fft(re, im, inverse);
+        Complex[] fft = new Complex[re.length];
+        for (int i = 0; i < fft.length; i++) {
+            fft[i] = new Complex(re[i], im[i]);
+        }
+        return fft;
+    }
+
+    // twiddle factors exp(2 pi i k / N) for k < N / 2, for the largest N
+    // transformed so far. a transform of length n < N uses every (N / n)th
+    // entry, so each factor is computed directly by cos/sin and never
+    // accumulated by repeated multiplication.
+    private static volatile double[][] twiddles = { { 1 }, { 0 } };
+
+    private static double[][] twiddles(int n) {
+        double[][] t = twiddles;
+        if (2 * t[0].length < n) {
+            double[] cos = new double[n / 2];
+            double[] sin = new double[n / 2];
+            for (int k = 0; k < n / 2; k++) {
+                cos[k] = Math.cos(2 * Math.PI * k / n);
+                sin[k] = Math.sin(2 * Math.PI * k / n);
+            }
+            twiddles = t = new double[][] { cos, sin };
+        }
+        return t;
+    }
+
+    // iterative radix-2 fft in place on separate real and imaginary parts,
+    // whose length must be a power of two. the inverse transform includes
+    // the 1/n scaling.
+    public static void fft(double[] re, double[] im, boolean inverse) {
+        fft(re, im, inverse, null);
+    }
+
+    // as above, but with the butterflies of each round split into
+    // ForkJoinPool tasks once the transform is long enough. every butterfly
+    // performs exactly the same arithmetic as in the sequential transform,
+    // so the results are bit-identical.
+    public static void parallelFft(double[] re, double[] im, boolean inverse,
+                                   ForkJoinPool pool) {
+        fft(re, im, inverse, pool);
+    }
+
+    private static void fft(double[] re, double[] im, boolean inverse,
+                            ForkJoinPool pool) {
+        int n = re.length;
+        // bit-reversal permutation
+        for (int i = 1, j = 0; i < n; i++) {
+            int bit = n >> 1;
+            for (; (j & bit) != 0; bit >>= 1) {
+                j ^= bit;
+            }
+            j ^= bit;
+            if (i < j) {
+                double t = re[i]; re[i] = re[j]; re[j] = t;
+                t = im[i]; im[i] = im[j]; im[j] = t;
+            }
+        }
+        double[][] t = twiddles(n);
+        double[] cos = t[0], sin = t[1];
+        double sign = inverse ? -1 : 1;
+        for (int len = 2; len <= n; len <<= 1) {
+            if (pool == null || n / 2 <= PARALLEL_GRAIN) {
+                butterflies(re, im, cos, sin, sign, len, 0, n / 2);
+            } else {
+                pool.invoke(new Butterflies(re, im, cos, sin, sign, len, 0,
+                        n / 2));
+            }
+        }
+        if (inverse) {
+            for (int i = 0; i < n; i++) {
+                re[i] /= n;
+                im[i] /= n;
+            }
+        }
+    }
+
+    // performs butterflies [from, to) of the round combining blocks of length
+    // len into blocks of length 2 * len
+    private static void butterflies(double[] re, double[] im, double[] cos,
+                                    double[] sin, double sign, int len,
+                                    int from, int to) {
+        int half = len / 2, stride = 2 * cos.length / len;
+        for (int b = from; b < to; b++) {
+            int j = b % half;
+            int u = (b / half) * len + j, v = u + half;
+            double wr = cos[j * stride], wi = sign * sin[j * stride];
+            double xr = re[v] * wr - im[v] * wi;
+            double xi = re[v] * wi + im[v] * wr;
+            re[v] = re[u] - xr;
+            im[v] = im[u] - xi;
+            re[u] += xr;
+            im[u] += xi;
+        }
+    }
+
+    // butterflies per task in the parallel transform
+    private static final int PARALLEL_GRAIN = 1 << 13;
+
+    private static final class Butterflies extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final double[] re, im, cos, sin;
+        private final double sign;
+        private final int len, from, to;
+
+        Butterflies(double[] re, double[] im, double[] cos, double[] sin,
+                    double sign, int len, int from, int to) {
+            this.re = re;
+            this.im = im;
+            this.cos = cos;
+            this.sin = sin;
+            this.sign = sign;
+            this.len = len;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PARALLEL_GRAIN) {
+                butterflies(re, im, cos, sin, sign, len, from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Butterflies(re, im, cos, sin, sign, len, from, mid),
+                    new Butterflies(re, im, cos, sin, sign, len, mid, to));
+        }
     }
 
     // sample client for testing
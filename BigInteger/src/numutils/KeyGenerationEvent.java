@@ -0,0 +1,25 @@
+package numutils;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// flight recorder event for one rsa key generation, from the start of the
+// prime search to the finished key
+@Name("numutils.KeyGeneration")
+@Label("RSA Key Generation")
+@Category({ "numutils", "RSA" })
+final class KeyGenerationEvent extends Event {
+
+	@Label("Prime Bits")
+	int bits;
+
+	@Label("Parallel")
+	boolean parallel;
+
+	KeyGenerationEvent(int bits, boolean parallel) {
+		this.bits = bits;
+		this.parallel = parallel;
+	}
+}
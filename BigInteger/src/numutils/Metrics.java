@@ -0,0 +1,187 @@
+package numutils;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// opt-in counters for the algorithms behind BigInteger. they are off unless
+// the system property numutils.metrics is true or setEnabled(true) is called,
+// and while off, recording costs a single field read. once on, every call is
+// counted in a histogram of its operand bit length by powers of two: bucket i
+// counts lengths of 2^(i-1) to 2^i - 1 bits, e.g. bucket 11 is 1024 to 2047.
+// the multiplication dispatcher only sees limbs, so its lengths are rounded
+// up to a multiple of 32.
+public final class Metrics {
+
+	public enum Operation {
+		QUAD_MULTIPLY, KARATSUBA_MULTIPLY, TOOM_COOK_3_MULTIPLY, FFT_MULTIPLY,
+		NTT_MULTIPLY, PARALLEL_MULTIPLY, QUAD_DIVISION, BARRETT_REDUCTION,
+		MONTGOMERY_EXP, BARRETT_EXP, PRIME_TEST, NEW_PRIME
+	}
+
+	public static final int BUCKETS = 32;
+	public static final String OBJECT_NAME = "numutils:type=Metrics";
+
+	private static volatile boolean enabled = Boolean
+			.getBoolean("numutils.metrics");
+
+	private static final LongAdder[][] histograms = new LongAdder[Operation
+			.values().length][BUCKETS];
+	// the candidates of newPrime and parallelNewPrime which survived the sieve
+	// and went on to the primality test
+	private static final LongAdder primeCandidates = new LongAdder();
+
+	static {
+		for (LongAdder[] h : histograms) {
+			for (int i = 0; i < BUCKETS; i++) {
+				h[i] = new LongAdder();
+			}
+		}
+	}
+
+	private Metrics() {
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	static void record(Operation op, int bits) {
+		if (enabled) {
+			histograms[op.ordinal()][BUCKETS
+					- Integer.numberOfLeadingZeros(bits)].increment();
+		}
+	}
+
+	static void recordPrimeCandidate() {
+		if (enabled) {
+			primeCandidates.increment();
+		}
+	}
+
+	// makes the counters readable over jmx. registering more than once has no
+	// further effect.
+	public static synchronized void registerMBean() throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(OBJECT_NAME);
+		if (!server.isRegistered(name)) {
+			server.registerMBean(new Bean(), name);
+		}
+	}
+
+	public static void reset() {
+		for (LongAdder[] h : histograms) {
+			for (LongAdder a : h) {
+				a.reset();
+			}
+		}
+		primeCandidates.reset();
+	}
+
+	public static void setEnabled(boolean enabled) {
+		Metrics.enabled = enabled;
+	}
+
+	// a copy of the counters. calls running at the same time may or may not
+	// be included.
+	public static Snapshot snapshot() {
+		long[][] h = new long[histograms.length][BUCKETS];
+		for (int op = 0; op < h.length; op++) {
+			for (int i = 0; i < BUCKETS; i++) {
+				h[op][i] = histograms[op][i].sum();
+			}
+		}
+		return new Snapshot(h, primeCandidates.sum());
+	}
+
+	public static synchronized void unregisterMBean() throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(OBJECT_NAME);
+		if (server.isRegistered(name)) {
+			server.unregisterMBean(name);
+		}
+	}
+
+	public static final class Snapshot {
+
+		private final long[][] histograms;
+		private final long primeCandidates;
+
+		private Snapshot(long[][] histograms, long primeCandidates) {
+			this.histograms = histograms;
+			this.primeCandidates = primeCandidates;
+		}
+
+		public long getCount(Operation op) {
+			long count = 0;
+			for (long c : histograms[op.ordinal()]) {
+				count += c;
+			}
+			return count;
+		}
+
+		public long[] getHistogram(Operation op) {
+			return histograms[op.ordinal()].clone();
+		}
+
+		public long getPrimeCandidates() {
+			return primeCandidates;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder("{");
+			for (Operation op : Operation.values()) {
+				if (getCount(op) != 0) {
+					sb.append(sb.length() > 1 ? ", " : "").append(op)
+							.append('=').append(getCount(op));
+				}
+			}
+			return sb.append(sb.length() > 1 ? ", " : "")
+					.append("primeCandidates=").append(primeCandidates)
+					.append('}').toString();
+		}
+	}
+
+	private static final class Bean implements MetricsMXBean {
+
+		public Map<String, Long> getCounts() {
+			Snapshot s = snapshot();
+			Map<String, Long> counts = new LinkedHashMap<String, Long>();
+			for (Operation op : Operation.values()) {
+				counts.put(op.name(), s.getCount(op));
+			}
+			return counts;
+		}
+
+		public Map<String, long[]> getHistograms() {
+			Snapshot s = snapshot();
+			Map<String, long[]> h = new LinkedHashMap<String, long[]>();
+			for (Operation op : Operation.values()) {
+				h.put(op.name(), s.getHistogram(op));
+			}
+			return h;
+		}
+
+		public long getPrimeCandidates() {
+			return primeCandidates.sum();
+		}
+
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		public void reset() {
+			Metrics.reset();
+		}
+
+		public void setEnabled(boolean enabled) {
+			Metrics.setEnabled(enabled);
+		}
+	}
+}
@@ -0,0 +1,20 @@
+package numutils;
+
+import java.util.Map;
+
+// the jmx view of Metrics, registered as numutils:type=Metrics by
+// Metrics.registerMBean(). counts and histograms are keyed by operation name.
+public interface MetricsMXBean {
+
+	Map<String, Long> getCounts();
+
+	Map<String, long[]> getHistograms();
+
+	long getPrimeCandidates();
+
+	boolean isEnabled();
+
+	void reset();
+
+	void setEnabled(boolean enabled);
+}
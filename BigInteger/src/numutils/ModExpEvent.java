@@ -0,0 +1,30 @@
+package numutils;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// flight recorder event for one modular exponentiation. the primality tests
+// work in montgomery form without going through modExp, so they are not
+// recorded here.
+@Name("numutils.ModExp")
+@Label("Modular Exponentiation")
+@Category({ "numutils", "BigInteger" })
+final class ModExpEvent extends Event {
+
+	@Label("Modulus Bits")
+	int modulusBits;
+
+	@Label("Exponent Bits")
+	int exponentBits;
+
+	@Label("Reduction")
+	String reduction;
+
+	ModExpEvent(int modulusBits, int exponentBits, String reduction) {
+		this.modulusBits = modulusBits;
+		this.exponentBits = exponentBits;
+		this.reduction = reduction;
+	}
+}
@@ -0,0 +1,223 @@
+package numutils;
+
+import java.util.Arrays;
+
+public class MontgomeryContext {
+
+	private final BigInteger modulus;
+	// the modulus limbs, and -modulus^-1 mod 2^32
+	private final int[] n;
+	private final int nPrime;
+	// R = 2^(32 * n.length) reduced mod the modulus, and R^2 mod the modulus
+	private final BigInteger R;
+	private final BigInteger R2;
+
+	public MontgomeryContext(BigInteger modulus) {
+		if (!modulus.testBit(0)) {
+			throw new ArithmeticException(
+					"montgomery reduction requires an odd modulus");
+		}
+		this.modulus = modulus;
+		n = modulus.mag;
+		// newton iteration for the inverse of n[0] mod 2^32: each step doubles
+		// the number of correct low bits, and n[0] is its own inverse mod 8
+		int inv = n[0];
+		for (int i = 0; i < 4; i++) {
+			inv *= 2 - n[0] * inv;
+		}
+		nPrime = -inv;
+		BigInteger one = BigInteger.valueOf(1);
+		R = one.leftShift(32 * n.length).quadDivision(modulus)[1];
+		R2 = one.leftShift(64 * n.length).quadDivision(modulus)[1];
+	}
+
+	// converts x out of montgomery form, i.e. returns x * R^-1 mod N
+	public BigInteger fromMontgomery(BigInteger x) {
+		return new BigInteger(reduce(pad(x.mag), pad(new int[] { 1 })));
+	}
+
+	public BigInteger getModulus() {
+		return modulus;
+	}
+
+	public BigInteger modExp(BigInteger base, BigInteger exp) {
+		Metrics.record(Metrics.Operation.MONTGOMERY_EXP, modulus.bitLength());
+		ModExpEvent event = new ModExpEvent(modulus.bitLength(),
+				exp.bitLength(), "montgomery");
+		event.begin();
+		BigInteger x = fromMontgomery(montExp(base, exp));
+		event.commit();
+		return x;
+	}
+
+	// returns base^exp in montgomery form
+	BigInteger montExp(BigInteger base, BigInteger exp) {
+		// left-to-right sliding window exponentiation, carried out entirely in
+		// montgomery form so that no step requires a division. the running
+		// value moves between two mutable buffers, so that the loop does not
+		// allocate.
+		if (exp.bitLength() == 0) {
+			return R;
+		}
+		int k = BigInteger.windowSize(exp.bitLength());
+		MutableBigInteger x = new MutableBigInteger(2 * n.length + 2);
+		MutableBigInteger t = new MutableBigInteger(2 * n.length + 2);
+		int[][] table = new int[1 << (k - 1)][];
+		table[0] = pad(toMontgomery(base).mag);
+		if (table.length > 1) {
+			square(table[0], x);
+			int[] b2 = limbs(x);
+			for (int i = 1; i < table.length; i++) {
+				reduce(table[i - 1], b2, t);
+				table[i] = limbs(t);
+			}
+		}
+		// xt[0] holds the running value and xt[1] takes each result
+		final MutableBigInteger[] xt = { x, t };
+		BigInteger.windowScan(exp, k, new BigInteger.WindowSteps() {
+			public void multiply(int index) {
+				reduce(xt[0].value, table[index], xt[1]);
+				swap();
+			}
+
+			public void square() {
+				MontgomeryContext.this.square(xt[0].value, xt[1]);
+				swap();
+			}
+
+			public void start(int index) {
+				xt[0].setValue(table[index]);
+			}
+
+			private void swap() {
+				MutableBigInteger swap = xt[0];
+				xt[0] = xt[1];
+				xt[1] = swap;
+			}
+		});
+		return xt[0].toBigInteger();
+	}
+
+	// the reduced value in t, as n.length limbs
+	private int[] limbs(MutableBigInteger t) {
+		int[] r = new int[n.length];
+		t.toLimbs(r, n.length);
+		return r;
+	}
+
+	// returns a * b * R^-1 mod N, for a and b in montgomery form
+	public BigInteger montMul(BigInteger a, BigInteger b) {
+		return new BigInteger(reduce(pad(a.mag), pad(b.mag)));
+	}
+
+	public BigInteger montSquare(BigInteger a) {
+		return new BigInteger(square(pad(a.mag)));
+	}
+
+	// returns R mod N, i.e. one in montgomery form
+	public BigInteger one() {
+		return R;
+	}
+
+	private int[] pad(int[] x) {
+		if (x.length > n.length) {
+			throw new ArithmeticException("operand is not reduced");
+		}
+		return x.length == n.length ? x : Arrays.copyOf(x, n.length);
+	}
+
+	private int[] reduce(int[] a, int[] b) {
+		MutableBigInteger t = new MutableBigInteger(2 * n.length + 2);
+		reduce(a, b, t);
+		return limbs(t);
+	}
+
+	// t = a * b * R^-1 mod N, reading the low n.length limbs of a and b
+	private void reduce(int[] a, int[] b, MutableBigInteger t) {
+		// coarsely integrated operand scanning (cios) montgomery
+		// multiplication: interleaves the schoolbook multiply with a word by
+		// word reduction, so the intermediate never exceeds n.length + 2 limbs
+		// and can be accumulated directly in the buffer of t
+		int k = n.length;
+		t.clear();
+		int[] v = t.value;
+		for (int i = 0; i < k; i++) {
+			long ai = a[i] & BigInteger.LONG_MASK;
+			long c = 0;
+			for (int j = 0; j < k; j++) {
+				c += (v[j] & BigInteger.LONG_MASK) + ai
+						* (b[j] & BigInteger.LONG_MASK);
+				v[j] = (int) c;
+				c >>>= 32;
+			}
+			c += v[k] & BigInteger.LONG_MASK;
+			v[k] = (int) c;
+			v[k + 1] = (int) (c >>> 32);
+			long m = (v[0] * nPrime) & BigInteger.LONG_MASK;
+			c = ((v[0] & BigInteger.LONG_MASK) + m
+					* (n[0] & BigInteger.LONG_MASK)) >>> 32;
+			for (int j = 1; j < k; j++) {
+				c += (v[j] & BigInteger.LONG_MASK) + m
+						* (n[j] & BigInteger.LONG_MASK);
+				v[j - 1] = (int) c;
+				c >>>= 32;
+			}
+			c += v[k] & BigInteger.LONG_MASK;
+			v[k - 1] = (int) c;
+			v[k] = v[k + 1] + (int) (c >>> 32);
+		}
+		v[k + 1] = 0;
+		t.length = k + 1;
+		t.normalize();
+		// the result is below 2N, so at most one subtraction is needed
+		if (t.compareTo(n) >= 0) {
+			t.subtract(n);
+		}
+	}
+
+	// separated operand scanning montgomery reduction: clears the low
+	// n.length limbs of t a word at a time by adding multiples of N, then
+	// drops them. t must be below N * R.
+	private void redc(MutableBigInteger t) {
+		int k = n.length;
+		for (int i = 0; i < k; i++) {
+			t.multiplyAccumulate(n, 0, k, t.value[i] * nPrime, i);
+		}
+		t.rightShift(32 * k);
+		// the result is below 2N, so at most one subtraction is needed
+		if (t.compareTo(n) >= 0) {
+			t.subtract(n);
+		}
+	}
+
+	private int[] square(int[] x) {
+		MutableBigInteger t = new MutableBigInteger(2 * n.length + 2);
+		square(x, t);
+		return limbs(t);
+	}
+
+	// t = x^2 * R^-1 mod N, reading the low n.length limbs of x. the square
+	// is computed before reducing, so that each cross product x[i] * x[j] is
+	// only formed once (or by the karatsuba squaring of BigInteger, for large
+	// moduli).
+	private void square(int[] x, MutableBigInteger t) {
+		int k = n.length;
+		if (k >= BigInteger.getKaratsubaThreshold()) {
+			t.setValue(BigInteger.square(Arrays.copyOf(x, k)));
+		} else {
+			t.clear();
+			BigInteger.quadSquare(x, k, t.value);
+			t.length = 2 * k;
+			t.normalize();
+		}
+		redc(t);
+	}
+
+	// converts x into montgomery form, i.e. returns x * R mod N
+	public BigInteger toMontgomery(BigInteger x) {
+		if (x.compareTo(modulus) >= 0) {
+			x = x.quadDivision(modulus)[1];
+		}
+		return new BigInteger(reduce(pad(x.mag), pad(R2.mag)));
+	}
+}
@@ -0,0 +1,163 @@
+package numutils;
+
+import java.util.Arrays;
+
+// a non-negative integer in a reusable little-endian limb buffer, for loops
+// which would otherwise allocate a new BigInteger at every step. every
+// operation works in place, and only grows the buffer when a result would not
+// fit in it.
+final class MutableBigInteger {
+
+	int[] value;
+	// the number of limbs in use; limbs from length upwards are always zero
+	int length;
+
+	MutableBigInteger(int capacity) {
+		value = new int[capacity];
+	}
+
+	// this += x
+	void add(int[] x) {
+		add(x, 0, x.length, 0);
+	}
+
+	// this += x[from..to) * 2^(32 * offset)
+	void add(int[] x, int from, int to, int offset) {
+		ensureCapacity(Math.max(length, offset + to - from) + 1);
+		long carry = 0;
+		int i = offset;
+		for (int j = from; j < to; i++, j++) {
+			carry += (value[i] & BigInteger.LONG_MASK)
+					+ (x[j] & BigInteger.LONG_MASK);
+			value[i] = (int) carry;
+			carry >>>= 32;
+		}
+		for (; carry != 0; i++) {
+			carry += value[i] & BigInteger.LONG_MASK;
+			value[i] = (int) carry;
+			carry >>>= 32;
+		}
+		length = Math.max(length, i);
+		normalize();
+	}
+
+	void clear() {
+		Arrays.fill(value, 0, length, 0);
+		length = 0;
+	}
+
+	int compareTo(int[] x) {
+		int xlen = x.length;
+		while (xlen > 0 && x[xlen - 1] == 0) {
+			xlen--;
+		}
+		if (length != xlen) {
+			return length < xlen ? -1 : 1;
+		}
+		return BigInteger.compareMagnitude(value, x, length);
+	}
+
+	private void ensureCapacity(int limbs) {
+		if (value.length < limbs) {
+			value = Arrays.copyOf(value, Math.max(limbs, 2 * value.length));
+		}
+	}
+
+	void leftShift(int n) {
+		if (length == 0) {
+			return;
+		}
+		int words = n >>> 5, shift = n & 31;
+		ensureCapacity(length + words + 1);
+		value[length + words] = 0;
+		for (int i = length - 1; i >= 0; i--) {
+			if (shift != 0) {
+				value[i + words + 1] |= value[i] >>> (32 - shift);
+			}
+			value[i + words] = value[i] << shift;
+		}
+		Arrays.fill(value, 0, Math.min(words, length), 0);
+		length += words + 1;
+		normalize();
+	}
+
+	// this += x[from..to) * b * 2^(32 * offset)
+	void multiplyAccumulate(int[] x, int from, int to, int b, int offset) {
+		ensureCapacity(Math.max(length, offset + to - from) + 2);
+		long carry = 0, bl = b & BigInteger.LONG_MASK;
+		int i = offset;
+		for (int j = from; j < to; i++, j++) {
+			carry += (value[i] & BigInteger.LONG_MASK) + bl
+					* (x[j] & BigInteger.LONG_MASK);
+			value[i] = (int) carry;
+			carry >>>= 32;
+		}
+		for (; carry != 0; i++) {
+			carry += value[i] & BigInteger.LONG_MASK;
+			value[i] = (int) carry;
+			carry >>>= 32;
+		}
+		length = Math.max(length, i);
+		normalize();
+	}
+
+	void normalize() {
+		while (length > 0 && value[length - 1] == 0) {
+			length--;
+		}
+	}
+
+	void rightShift(int n) {
+		int words = n >>> 5, shift = n & 31;
+		if (words >= length) {
+			clear();
+			return;
+		}
+		int len = length - words;
+		for (int i = 0; i < len; i++) {
+			value[i] = value[i + words] >>> shift;
+			if (shift != 0 && i + words + 1 < length) {
+				value[i] |= value[i + words + 1] << (32 - shift);
+			}
+		}
+		Arrays.fill(value, len, length, 0);
+		length = len;
+		normalize();
+	}
+
+	void setValue(int[] mag) {
+		clear();
+		add(mag);
+	}
+
+	// this -= x, for this >= x
+	void subtract(int[] x) {
+		ensureCapacity(x.length);
+		long borrow = 0;
+		int i = 0;
+		for (; i < x.length; i++) {
+			borrow += (value[i] & BigInteger.LONG_MASK)
+					- (x[i] & BigInteger.LONG_MASK);
+			value[i] = (int) borrow;
+			borrow >>= 32;
+		}
+		for (; borrow != 0; i++) {
+			borrow += value[i] & BigInteger.LONG_MASK;
+			value[i] = (int) borrow;
+			borrow >>= 32;
+		}
+		normalize();
+	}
+
+	BigInteger toBigInteger() {
+		return new BigInteger(Arrays.copyOf(value, length));
+	}
+
+	// the low limbs of this, zero padded to len limbs
+	void toLimbs(int[] dest, int len) {
+		System.arraycopy(value, 0, dest, 0, Math.min(length, len));
+		if (length < len) {
+			Arrays.fill(dest, length, len, 0);
+		}
+	}
+}
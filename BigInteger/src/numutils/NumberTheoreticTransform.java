@@ -0,0 +1,151 @@
+package numutils;
+
+import java.util.Arrays;
+
+// exact convolution of 16 bit digits by number-theoretic transforms over three
+// ntt-friendly primes, recombined with the chinese remainder theorem. every
+// coefficient of a convolution of length up to 2^23 is below 2^54, well under
+// the ~2^86 product of the primes, so the recombined result is exact.
+final class NumberTheoreticTransform {
+
+	// primes of the form c * 2^k + 1, each with primitive root 3
+	private static final long[] PRIMES = { 998244353L, 167772161L,
+			469762049L };
+	private static final long GENERATOR = 3;
+	// the largest transform length supported by all three primes
+	static final int MAX_LENGTH = 1 << 23;
+
+	private NumberTheoreticTransform() {
+	}
+
+	static int[] multiply(int[] a, int[] b) {
+		// when squaring (a == b) only one forward transform per prime is needed
+		long[] da = toDigits(a), db = a == b ? da : toDigits(b);
+		int n = transformLength(da.length + db.length - 1);
+		long[][] residues = new long[PRIMES.length][];
+		for (int i = 0; i < PRIMES.length; i++) {
+			long p = PRIMES[i];
+			long[] fa = Arrays.copyOf(da, n);
+			transform(fa, p, false);
+			long[] fb = fa;
+			if (a != b) {
+				fb = Arrays.copyOf(db, n);
+				transform(fb, p, false);
+			}
+			for (int j = 0; j < n; j++) {
+				fa[j] = fa[j] * fb[j] % p;
+			}
+			transform(fa, p, true);
+			residues[i] = fa;
+		}
+		return recombine(residues, da.length + db.length - 1,
+				a.length + b.length);
+	}
+
+	private static long power(long base, long exp, long p) {
+		long result = 1;
+		base %= p;
+		for (; exp > 0; exp >>= 1) {
+			if ((exp & 1) == 1) {
+				result = result * base % p;
+			}
+			base = base * base % p;
+		}
+		return result;
+	}
+
+	private static int[] recombine(long[][] r, int digits, int limbs) {
+		// garner's algorithm: x = x1 + x2 * p1 + x3 * p1 * p2, after which the
+		// 128 bit value (hi, lo) is carried into the product 16 bits at a time
+		long p1 = PRIMES[0], p2 = PRIMES[1], p3 = PRIMES[2];
+		long p1InvP2 = power(p1, p2 - 2, p2);
+		long p1InvP3 = power(p1, p3 - 2, p3);
+		long p2InvP3 = power(p2, p3 - 2, p3);
+		long p12 = p1 * p2;
+		int[] product = new int[limbs];
+		long hi = 0, lo = 0;
+		for (int i = 0; i < 2 * limbs; i++) {
+			if (i < digits) {
+				long x1 = r[0][i];
+				long x2 = (r[1][i] - x1 % p2 + p2) % p2 * p1InvP2 % p2;
+				long x3 = ((r[2][i] - x1 % p3 + p3) % p3 * p1InvP3 % p3 - x2
+						% p3 + p3)
+						% p3 * p2InvP3 % p3;
+				long h = Math.multiplyHigh(x3, p12), l = x3 * p12;
+				long v = x1 + x2 * p1;
+				l += v;
+				if (Long.compareUnsigned(l, v) < 0) {
+					h++;
+				}
+				lo += l;
+				if (Long.compareUnsigned(lo, l) < 0) {
+					h++;
+				}
+				hi += h;
+			}
+			product[i >>> 1] |= (int) (lo & 0xffff) << ((i & 1) * 16);
+			lo = (lo >>> 16) | (hi << 48);
+			hi >>>= 16;
+		}
+		return product;
+	}
+
+	private static long[] toDigits(int[] mag) {
+		long[] digits = new long[2 * mag.length];
+		for (int i = 0; i < mag.length; i++) {
+			digits[2 * i] = mag[i] & 0xffff;
+			digits[2 * i + 1] = mag[i] >>> 16;
+		}
+		return digits;
+	}
+
+	private static void transform(long[] a, long p, boolean inverse) {
+		// iterative radix-2 cooley-tukey transform in place: bit-reversal
+		// permutation followed by log2(n) rounds of butterflies
+		int n = a.length;
+		for (int i = 1, j = 0; i < n; i++) {
+			int bit = n >> 1;
+			for (; (j & bit) != 0; bit >>= 1) {
+				j ^= bit;
+			}
+			j ^= bit;
+			if (i < j) {
+				long t = a[i];
+				a[i] = a[j];
+				a[j] = t;
+			}
+		}
+		for (int len = 2; len <= n; len <<= 1) {
+			long w = power(GENERATOR, (p - 1) / len, p);
+			if (inverse) {
+				w = power(w, p - 2, p);
+			}
+			long[] powers = new long[len / 2];
+			powers[0] = 1;
+			for (int i = 1; i < powers.length; i++) {
+				powers[i] = powers[i - 1] * w % p;
+			}
+			for (int i = 0; i < n; i += len) {
+				for (int j = 0; j < len / 2; j++) {
+					long u = a[i + j], v = a[i + j + len / 2] * powers[j] % p;
+					a[i + j] = u + v < p ? u + v : u + v - p;
+					a[i + j + len / 2] = u - v >= 0 ? u - v : u - v + p;
+				}
+			}
+		}
+		if (inverse) {
+			long nInv = power(n, p - 2, p);
+			for (int i = 0; i < n; i++) {
+				a[i] = a[i] * nInv % p;
+			}
+		}
+	}
+
+	private static int transformLength(int n) {
+		if (n > MAX_LENGTH) {
+			throw new ArithmeticException(
+					"operands too large for ntt multiplication");
+		}
+		return n <= 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+	}
+}
@@ -0,0 +1,214 @@
+package numutils;
+
+import java.util.Arrays;
+
+// conversion between BigInteger and strings in any radix from 2 to 36. powers
+// of two are converted bit by bit in linear time. other radices are split in
+// half by the cached powers radix^(d * 2^i), where d is the number of digits
+// which fit in a chunk of 31 bits: toString divides by them with a cached
+// barrett reducer and parsing multiplies by them, so that both cost
+// O(M(n) log n) rather than the O(n^2) of converting a chunk at a time.
+final class RadixConversion {
+
+	// numbers of up to this many limbs are converted a chunk at a time
+	static final int THRESHOLD = 40;
+
+	// the number of digits in a chunk, and radix^DIGITS[radix]
+	private static final int[] DIGITS = new int[Character.MAX_RADIX + 1];
+	private static final int[] CHUNK = new int[Character.MAX_RADIX + 1];
+
+	static {
+		for (int radix = Character.MIN_RADIX; radix <= Character.MAX_RADIX;
+				radix++) {
+			long chunk = 1;
+			while (chunk * radix <= Integer.MAX_VALUE) {
+				chunk *= radix;
+				DIGITS[radix]++;
+			}
+			CHUNK[radix] = (int) chunk;
+		}
+	}
+
+	// powers[radix][i] = radix^(DIGITS[radix] * 2^i), grown on demand
+	private static final BigInteger[][] powers = new BigInteger[Character.MAX_RADIX + 1][0];
+	private static final BarrettReducer[][] reducers = new BarrettReducer[Character.MAX_RADIX + 1][0];
+
+	private RadixConversion() {
+	}
+
+	private static void checkRadix(int radix) {
+		if (radix < Character.MIN_RADIX || radix > Character.MAX_RADIX) {
+			throw new NumberFormatException("radix " + radix
+					+ " out of range");
+		}
+	}
+
+	private static int digit(String s, int i, int radix) {
+		int d = Character.digit(s.charAt(i), radix);
+		if (d < 0) {
+			throw new NumberFormatException("invalid digit '" + s.charAt(i)
+					+ "' in \"" + s + "\"");
+		}
+		return d;
+	}
+
+	static BigInteger parse(String s, int radix) {
+		checkRadix(radix);
+		if (s.isEmpty()) {
+			throw new NumberFormatException("zero length number");
+		}
+		if (Integer.bitCount(radix) == 1) {
+			// each digit is a fixed group of bits
+			int bits = Integer.numberOfTrailingZeros(radix);
+			int[] mag = new int[(s.length() * bits + 31) / 32];
+			for (int i = s.length() - 1, j = 0; i >= 0; i--, j += bits) {
+				long d = (long) digit(s, i, radix) << (j & 31);
+				mag[j >>> 5] |= (int) d;
+				if ((d >>> 32) != 0) {
+					mag[(j >>> 5) + 1] |= (int) (d >>> 32);
+				}
+			}
+			return new BigInteger(mag);
+		}
+		return parse(s, 0, s.length(), radix);
+	}
+
+	// s[from..to) as a number
+	private static BigInteger parse(String s, int from, int to, int radix) {
+		int d = DIGITS[radix];
+		if (to - from <= THRESHOLD * d) {
+			// horner's rule a chunk at a time, from the most significant
+			// (possibly short) chunk down
+			int[] mag = new int[(to - from + d - 1) / d];
+			int len = 0;
+			for (int i = from; i < to;) {
+				int end = i == from ? to - (to - from - 1) / d * d : i + d;
+				int chunk = 0, scale = 1;
+				for (; i < end; i++) {
+					chunk = chunk * radix + digit(s, i, radix);
+					scale *= radix;
+				}
+				long carry = chunk & BigInteger.LONG_MASK;
+				for (int j = 0; j < len; j++) {
+					carry += (mag[j] & BigInteger.LONG_MASK) * scale;
+					mag[j] = (int) carry;
+					carry >>>= 32;
+				}
+				if (carry != 0) {
+					mag[len++] = (int) carry;
+				}
+			}
+			return new BigInteger(mag);
+		}
+		// the low part gets the largest cached number of digits below the
+		// length, so that the high part is no longer than the low one
+		int i = 0;
+		while ((long) d << (i + 1) < to - from) {
+			i++;
+		}
+		int split = to - (d << i);
+		return parse(s, from, split, radix).multiply(power(radix, i)).add(
+				parse(s, split, to, radix));
+	}
+
+	// radix^(DIGITS[radix] * 2^i)
+	private static synchronized BigInteger power(int radix, int i) {
+		BigInteger[] p = powers[radix];
+		if (i >= p.length) {
+			int n = p.length;
+			p = powers[radix] = Arrays.copyOf(p, i + 1);
+			for (; n <= i; n++) {
+				p[n] = n == 0 ? BigInteger.valueOf(CHUNK[radix]) : p[n - 1]
+						.square();
+			}
+		}
+		return p[i];
+	}
+
+	private static synchronized BarrettReducer reducer(int radix, int i) {
+		BarrettReducer[] r = reducers[radix];
+		if (i >= r.length) {
+			r = reducers[radix] = Arrays.copyOf(r, i + 1);
+		}
+		if (r[i] == null) {
+			r[i] = new BarrettReducer(power(radix, i));
+		}
+		return r[i];
+	}
+
+	static String toString(BigInteger x, int radix) {
+		checkRadix(radix);
+		if (x.bitLength() == 0) {
+			return "0";
+		}
+		if (Integer.bitCount(radix) == 1) {
+			int bits = Integer.numberOfTrailingZeros(radix);
+			char[] digits = new char[(x.bitLength() + bits - 1) / bits];
+			for (int i = digits.length - 1, j = 0; i >= 0; i--, j += bits) {
+				long d = x.mag[j >>> 5] & BigInteger.LONG_MASK;
+				if ((j >>> 5) + 1 < x.mag.length) {
+					d |= (long) x.mag[(j >>> 5) + 1] << 32;
+				}
+				digits[i] = Character.forDigit(
+						(int) (d >>> (j & 31)) & (radix - 1), radix);
+			}
+			return new String(digits);
+		}
+		StringBuilder sb = new StringBuilder();
+		toString(x, radix, sb, 0);
+		return sb.toString();
+	}
+
+	// appends x, zero padded on the left to digits digits
+	private static void toString(BigInteger x, int radix, StringBuilder sb,
+			int digits) {
+		int d = DIGITS[radix];
+		if (x.mag.length <= THRESHOLD) {
+			// repeated division by the chunk size, least significant chunk
+			// first
+			int[] mag = x.mag.clone();
+			// every chunk size is above 2^25
+			int[] chunks = new int[mag.length * 32 / 25 + 1];
+			int n = 0;
+			for (int len = mag.length; len > 0; n++) {
+				long r = 0;
+				for (int j = len - 1; j >= 0; j--) {
+					long cur = (r << 32) | (mag[j] & BigInteger.LONG_MASK);
+					mag[j] = (int) (cur / CHUNK[radix]);
+					r = cur % CHUNK[radix];
+				}
+				chunks[n] = (int) r;
+				while (len > 0 && mag[len - 1] == 0) {
+					len--;
+				}
+			}
+			String top = n == 0 ? "" : Integer.toString(chunks[n - 1], radix);
+			for (int i = top.length() + Math.max(n - 1, 0) * d; i < digits;
+					i++) {
+				sb.append('0');
+			}
+			sb.append(top);
+			for (int i = n - 2; i >= 0; i--) {
+				String c = Integer.toString(chunks[i], radix);
+				for (int j = c.length(); j < d; j++) {
+					sb.append('0');
+				}
+				sb.append(c);
+			}
+			return;
+		}
+		// the smallest cached power with at least half the limbs of x, so
+		// that x is in range of its barrett reducer and the halves balance
+		int i = 0;
+		while (2 * power(radix, i).mag.length < x.mag.length) {
+			i++;
+		}
+		BigInteger[] qr = reducer(radix, i).divide(x);
+		if (digits == 0 && qr[0].bitLength() == 0) {
+			toString(qr[1], radix, sb, 0);
+		} else {
+			toString(qr[0], radix, sb, Math.max(digits - (d << i), 0));
+			toString(qr[1], radix, sb, d << i);
+		}
+	}
+}
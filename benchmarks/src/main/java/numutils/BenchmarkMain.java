@@ -0,0 +1,42 @@
+package numutils;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// the usual jmh command line, except that the gc profiler is always on (for
+// the allocation rate) and results go to jmh-result.json unless -rf or -rff
+// say otherwise
+public class BenchmarkMain {
+
+	public static void main(String[] args) throws CommandLineOptionException,
+			IOException, RunnerException {
+		CommandLineOptions cmd = new CommandLineOptions(args);
+		if (cmd.shouldHelp()) {
+			cmd.showHelp();
+			return;
+		}
+		if (cmd.shouldList() || cmd.shouldListWithParams()
+				|| cmd.shouldListProfilers() || cmd.shouldListResultFormats()) {
+			// the stock main already knows how to list
+			org.openjdk.jmh.Main.main(args);
+			return;
+		}
+		ChainedOptionsBuilder options = new OptionsBuilder().parent(cmd)
+				.addProfiler(GCProfiler.class);
+		if (!cmd.getResultFormat().hasValue()) {
+			options.resultFormat(ResultFormatType.JSON);
+		}
+		if (!cmd.getResult().hasValue()) {
+			options.result("jmh-result.json");
+		}
+		new Runner(options.build()).run();
+	}
+}
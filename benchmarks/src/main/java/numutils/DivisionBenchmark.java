@@ -0,0 +1,59 @@
+package numutils;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// a 2*bits-bit number divided by a bits-bit one, with remainder
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DivisionBenchmark {
+
+	@Param({ "64", "256", "1024", "4096", "16384", "65536", "262144",
+			"1048576" })
+	int bits;
+
+	BigInteger dividend, divisor;
+	BarrettReducer reducer;
+	java.math.BigInteger javaDividend, javaDivisor;
+
+	@Setup
+	public void setup() {
+		Random rnd = Operands.random();
+		javaDividend = Operands.random(2 * bits, rnd);
+		javaDivisor = Operands.random(bits, rnd);
+		dividend = Operands.toBigInteger(javaDividend);
+		divisor = Operands.toBigInteger(javaDivisor);
+		reducer = new BarrettReducer(divisor);
+	}
+
+	@Benchmark
+	public BigInteger[] barrettDivide() {
+		return reducer.divide(dividend);
+	}
+
+	@Benchmark
+	public java.math.BigInteger[] javaDivideAndRemainder() {
+		return javaDividend.divideAndRemainder(javaDivisor);
+	}
+
+	@Benchmark
+	public BigInteger[] quadDivision() {
+		return dividend.quadDivision(divisor);
+	}
+}
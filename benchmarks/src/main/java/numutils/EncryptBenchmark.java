@@ -0,0 +1,83 @@
+package numutils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// rsa encryption of a fixed message under a bits-bit key. the baseline runs
+// java.math.BigInteger.modPow over the same number of blocks
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EncryptBenchmark {
+
+	static final int MESSAGE_SIZE = 4096;
+
+	@Param({ "512", "1024", "2048", "4096" })
+	int bits;
+
+	BigInteger N, e;
+	java.math.BigInteger javaN, javaE;
+	byte[] message;
+	String text;
+
+	@Setup
+	public void setup() {
+		Random rnd = Operands.random();
+		// two bits/2-bit primes make a bits-bit modulus
+		RSAPrivateKey key = BigInteger.generateRSAKey(bits / 2);
+		N = key.getN();
+		e = key.getE();
+		javaN = new java.math.BigInteger(N.toString(), 16);
+		javaE = new java.math.BigInteger(e.toString(), 16);
+		message = new byte[MESSAGE_SIZE];
+		// printable ascii, so that the string and byte forms agree
+		for (int i = 0; i < message.length; i++) {
+			message[i] = (byte) (' ' + rnd.nextInt(95));
+		}
+		text = new String(message);
+	}
+
+	@Benchmark
+	public String encryptString() {
+		return BigInteger.encryptString(text, N, e);
+	}
+
+	@Benchmark
+	public byte[] encryptStream() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BigInteger.encryptStream(new ByteArrayInputStream(message), out, N, e);
+		return out.toByteArray();
+	}
+
+	@Benchmark
+	public java.math.BigInteger[] javaModPow() {
+		int plainSize = (javaN.bitLength() - 1) / 8;
+		java.math.BigInteger[] cipher = new java.math.BigInteger[(message.length
+				+ plainSize - 1) / plainSize];
+		for (int i = 0; i < cipher.length; i++) {
+			byte[] block = new byte[Math.min(plainSize, message.length - i
+					* plainSize)];
+			System.arraycopy(message, i * plainSize, block, 0, block.length);
+			cipher[i] = new java.math.BigInteger(1, block).modPow(javaE, javaN);
+		}
+		return cipher;
+	}
+}
@@ -0,0 +1,66 @@
+package numutils;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// base^exp mod m with everything bits bits long. an odd modulus goes through
+// montgomery multiplication and an even one through barrett reduction
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ModExpBenchmark {
+
+	@Param({ "64", "256", "1024", "2048", "4096" })
+	int bits;
+
+	BigInteger base, exp, odd, even;
+	java.math.BigInteger javaBase, javaExp, javaOdd, javaEven;
+
+	@Setup
+	public void setup() {
+		Random rnd = Operands.random();
+		javaBase = Operands.random(bits - 1, rnd);
+		javaExp = Operands.random(bits, rnd);
+		javaOdd = Operands.random(bits, rnd).setBit(0);
+		javaEven = javaOdd.clearBit(0);
+		base = Operands.toBigInteger(javaBase);
+		exp = Operands.toBigInteger(javaExp);
+		odd = Operands.toBigInteger(javaOdd);
+		even = Operands.toBigInteger(javaEven);
+	}
+
+	@Benchmark
+	public java.math.BigInteger javaModPowEven() {
+		return javaBase.modPow(javaExp, javaEven);
+	}
+
+	@Benchmark
+	public java.math.BigInteger javaModPowOdd() {
+		return javaBase.modPow(javaExp, javaOdd);
+	}
+
+	@Benchmark
+	public BigInteger modExpEven() {
+		return base.modExp(exp, even);
+	}
+
+	@Benchmark
+	public BigInteger modExpOdd() {
+		return base.modExp(exp, odd);
+	}
+}
@@ -0,0 +1,77 @@
+package numutils;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// products of two bits-bit numbers, by each algorithm and by the dispatcher
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MultiplyBenchmark {
+
+	@Param({ "64", "256", "1024", "4096", "16384", "65536", "262144",
+			"1048576" })
+	int bits;
+
+	BigInteger a, b;
+	java.math.BigInteger javaA, javaB;
+
+	@Setup
+	public void setup() {
+		Random rnd = Operands.random();
+		javaA = Operands.random(bits, rnd);
+		javaB = Operands.random(bits, rnd);
+		a = Operands.toBigInteger(javaA);
+		b = Operands.toBigInteger(javaB);
+	}
+
+	@Benchmark
+	public BigInteger divConquerMultiply() {
+		return a.divConquerMultiply(b);
+	}
+
+	@Benchmark
+	public BigInteger fftMultiply() {
+		return a.fftMultiply(b);
+	}
+
+	@Benchmark
+	public java.math.BigInteger javaMultiply() {
+		return javaA.multiply(javaB);
+	}
+
+	@Benchmark
+	public BigInteger multiply() {
+		return a.multiply(b);
+	}
+
+	@Benchmark
+	public BigInteger nttMultiply() {
+		return a.nttMultiply(b);
+	}
+
+	@Benchmark
+	public BigInteger quadMultiply() {
+		return a.quadMultiply(b);
+	}
+
+	@Benchmark
+	public BigInteger toomCook3Multiply() {
+		return a.toomCook3Multiply(b);
+	}
+}
@@ -0,0 +1,24 @@
+package numutils;
+
+import java.util.Random;
+
+// random operands of an exact bit length, drawn from a fixed seed so that
+// every run (and the java.math baseline) works on the same numbers
+final class Operands {
+
+	private Operands() {
+	}
+
+	static Random random() {
+		return new Random(42);
+	}
+
+	// a random number with exactly bits bits
+	static java.math.BigInteger random(int bits, Random rnd) {
+		return new java.math.BigInteger(bits - 1, rnd).setBit(bits - 1);
+	}
+
+	static BigInteger toBigInteger(java.math.BigInteger x) {
+		return new BigInteger(x.toString(16));
+	}
+}
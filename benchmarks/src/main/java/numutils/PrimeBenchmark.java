@@ -0,0 +1,50 @@
+package numutils;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// random bits-bit primes. the search cost varies a lot from one prime to the
+// next, so the measurement runs longer than elsewhere
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 4)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PrimeBenchmark {
+
+	// about the 2^-100 error bound of java.math.BigInteger.probablePrime
+	static final float PROB = 1e-30f;
+
+	@Param({ "64", "256", "512", "1024", "2048" })
+	int bits;
+
+	Random rnd;
+
+	@Setup
+	public void setup() {
+		rnd = Operands.random();
+	}
+
+	@Benchmark
+	public java.math.BigInteger javaProbablePrime() {
+		return java.math.BigInteger.probablePrime(bits, rnd);
+	}
+
+	@Benchmark
+	public BigInteger newPrime() {
+		return BigInteger.newPrime(bits, PROB, rnd);
+	}
+}